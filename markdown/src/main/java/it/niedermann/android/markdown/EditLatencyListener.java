@@ -0,0 +1,33 @@
+package it.niedermann.android.markdown;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Receives how long it took from a change of the content until its consequences became visible, e.g. to collect latency percentiles.
+ * Multiple changes which are processed together are measured from the first of them.
+ */
+@FunctionalInterface
+public interface EditLatencyListener {
+
+    enum Stage {
+        /**
+         * The syntax highlighting of the change has been applied
+         */
+        HIGHLIGHT,
+        /**
+         * {@link MarkdownEditor#getMarkdownString()} and its listener have been updated
+         */
+        MODEL,
+        /**
+         * The state of the formatting commands has been calculated and delivered to the controllers
+         */
+        EDITOR_STATE
+    }
+
+    /**
+     * Called on the main thread.
+     *
+     * @param documentLength length of the content when the {@param stage} has been completed
+     */
+    void onEditLatency(@NonNull Stage stage, long latencyNanos, int documentLength);
+}
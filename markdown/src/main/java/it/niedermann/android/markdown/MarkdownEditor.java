@@ -7,13 +7,19 @@ import androidx.annotation.ColorInt;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.lifecycle.LiveData;
+import androidx.lifecycle.MutableLiveData;
 
 import com.nextcloud.android.sso.model.SingleSignOnAccount;
 
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 import java.util.function.Consumer;
 import java.util.function.Function;
 
+import it.niedermann.android.markdown.model.OutlineEntry;
+import it.niedermann.android.markdown.model.TextChange;
+
 /**
  * Can be used for editors and viewers as well.
  * Viewer can support basic edit features, like toggling checkboxes
@@ -55,6 +61,14 @@ public interface MarkdownEditor {
      */
     LiveData<CharSequence> getMarkdownString();
 
+    /**
+     * @return the headings of the currently rendered markdown in document order
+     */
+    default LiveData<List<OutlineEntry>> getOutline() {
+        Log.w(TAG, LOG_WARNING_UNSUPPORTED_FEATURE);
+        return new MutableLiveData<>(Collections.emptyList());
+    }
+
     /**
      * Similar to {@link #getMarkdownString()} but without {@link LiveData}. Will remove previously set {@link Consumer}s.
      *
@@ -62,6 +76,31 @@ public interface MarkdownEditor {
      */
     void setMarkdownStringChangedListener(@Nullable Consumer<CharSequence> listener);
 
+    /**
+     * Other than {@link #setMarkdownStringChangedListener(Consumer)} the {@param listener} only receives what actually changed, e.g. for incremental synchronization.
+     *
+     * @param listener a {@link Consumer} which will receive each change of the content as {@link TextChange}. Will remove previously set {@link Consumer}s.
+     */
+    default void setTextChangeListener(@Nullable Consumer<TextChange> listener) {
+        Log.w(TAG, LOG_WARNING_UNSUPPORTED_FEATURE);
+    }
+
+    /**
+     * Applies the {@param changes} one after another to the current content, e.g. to merge remote changes into an open document without losing the selection.
+     *
+     * @param changes the {@link TextChange#offset() offset} of each change refers to the content after applying the previous changes
+     */
+    default void applyTextChanges(@NonNull List<TextChange> changes) {
+        Log.w(TAG, LOG_WARNING_UNSUPPORTED_FEATURE);
+    }
+
+    /**
+     * @param listener receives the time it took to highlight, publish and analyze each change of the content. Will remove previously set listeners.
+     */
+    default void setEditLatencyListener(@Nullable EditLatencyListener listener) {
+        Log.w(TAG, LOG_WARNING_UNSUPPORTED_FEATURE);
+    }
+
     void setEnabled(boolean enabled);
 
     /**
@@ -89,10 +128,21 @@ public interface MarkdownEditor {
      * Highlights the given {@param searchText} in the {@link MarkdownEditor}.
      *
      * @param searchText the term to highlight
-     * @param current    highlights the occurrence of the {@param searchText} at this position special
+     * @param current    highlights the occurrence of the {@param searchText} at this position special, starting at <code>1</code>.
+     *                   While editing, it sticks to the text of this occurrence, see {@link #setSearchCurrentChangedListener(Consumer)}.
      */
     void setSearchText(@Nullable CharSequence searchText, @Nullable Integer current);
 
+    /**
+     * When occurrences of the search text before the current one get added or removed by editing, the current occurrence keeps being highlighted and thus gets a different position.
+     * Passing this position to {@link #setSearchText(CharSequence, Integer)} again, e.g. to jump to the next occurrence, keeps the highlighting in sync.
+     *
+     * @param listener a {@link Consumer} which receives the new position of the current occurrence, starting at <code>1</code>, on the main thread. Will remove previously set {@link Consumer}s.
+     */
+    default void setSearchCurrentChangedListener(@Nullable Consumer<Integer> listener) {
+        Log.w(TAG, LOG_WARNING_UNSUPPORTED_FEATURE);
+    }
+
     /**
      * Intercepts each click on a clickable element like {@link URLSpan}s
      *
@@ -3,6 +3,7 @@ package it.niedermann.android.markdown;
 import android.annotation.SuppressLint;
 import android.content.Context;
 import android.graphics.Paint;
+import android.graphics.Rect;
 import android.os.Build;
 import android.text.Editable;
 import android.text.Spannable;
@@ -13,12 +14,16 @@ import android.text.TextUtils;
 import android.text.style.QuoteSpan;
 import android.util.Log;
 import android.util.Pair;
+import android.util.TypedValue;
 import android.widget.RemoteViews.RemoteView;
 import android.widget.TextView;
 
+import androidx.annotation.AnyThread;
 import androidx.annotation.ColorInt;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+import androidx.annotation.WorkerThread;
 import androidx.core.content.ContextCompat;
 import androidx.core.text.HtmlCompat;
 
@@ -27,18 +32,33 @@ import com.nextcloud.android.common.ui.theme.utils.AndroidViewThemeUtils;
 import org.commonmark.parser.Parser;
 import org.commonmark.renderer.html.HtmlRenderer;
 
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
 import java.lang.reflect.InvocationTargetException;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Locale;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
 import java.util.function.Function;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import io.noties.markwon.Markwon;
+import it.niedermann.android.markdown.markwon.MarkwonMarkdownViewer;
 import it.niedermann.android.markdown.model.EListType;
 import it.niedermann.android.markdown.model.SearchSpan;
 import it.niedermann.android.markdown.remoteviews.RemoteViewElement;
@@ -48,23 +68,88 @@ public class MarkdownUtil {
 
     private static final String TAG = MarkdownUtil.class.getSimpleName();
 
-    private static final Parser PARSER = Parser.builder().build();
-    private static final HtmlRenderer RENDERER = HtmlRenderer.builder().softbreak("<br>").build();
-
     private static final Pattern PATTERN_CODE_FENCE = Pattern.compile("^(`{3,})");
+    private static final Pattern PATTERN_EXPORT_FENCE = Pattern.compile("^ {0,3}(`{3,}|~{3,})(.*)$");
     private static final Pattern PATTERN_ORDERED_LIST_ITEM = Pattern.compile("^(\\d+)\\.\\s.+$");
     private static final Pattern PATTERN_ORDERED_LIST_ITEM_EMPTY = Pattern.compile("^(\\d+)\\.\\s$");
     private static final Pattern PATTERN_MARKDOWN_LINK = Pattern.compile("\\[(.+)?]\\(([^ ]+?)?( \"(.+)\")?\\)");
 
     private static final String PATTERN_QUOTE_BOLD_PUNCTUATION = Pattern.quote("**");
 
-    private static final Optional<String> CHECKBOX_CHECKED_EMOJI = getCheckboxEmoji(true);
-    private static final Optional<String> CHECKBOX_UNCHECKED_EMOJI = getCheckboxEmoji(false);
+    private static final int EXPORT_CHUNK_LENGTH = 64 * 1024;
+
+    private static final String WARM_UP_SAMPLE = """
+            # Heading
+
+            Some **bold**, *italic*, ~~strike through~~ and `inline code` with a [link](https://nextcloud.com).
+
+            - [ ] Open
+            - [x] Done
+
+            1. First
+            2. Second
+
+            > Quote
+
+            | Table | Header |
+            | ----- | ------ |
+            | Cell  | Cell   |
+
+            ```java
+            class Foo {
+            }
+            ```
+            """;
 
     private MarkdownUtil() {
         // Util class
     }
 
+    /**
+     * Holds the {@link Parser} and {@link HtmlRenderer}. They get created on first usage (or by {@link #warmUp(Context)}) instead of when {@link MarkdownUtil} is loaded.
+     */
+    private static final class CommonMark {
+        private static final Parser PARSER = Parser.builder().build();
+        private static final HtmlRenderer RENDERER = HtmlRenderer.builder().softbreak("<br>").build();
+    }
+
+    /**
+     * Probing via {@link Paint#hasGlyph(String)} is expensive, so it happens on first usage (or by {@link #warmUp(Context)}) instead of when {@link MarkdownUtil} is loaded.
+     */
+    private static final class CheckboxEmojis {
+        private static final Optional<String> CHECKED = getCheckboxEmoji(true);
+        private static final Optional<String> UNCHECKED = getCheckboxEmoji(false);
+    }
+
+    /**
+     * Performs the expensive one-time initializations of the markdown stack on a background thread, so the first {@link MarkdownEditor} shown does not have to pay for them.
+     * This includes the commonmark {@link Parser} and {@link HtmlRenderer}, the checkbox emoji probing, the syntax highlighting grammars, the color schemes for the primary color of the theme and the {@link Markwon} plugins.
+     * <p>
+     * Usually you want to call this in {@link android.app.Application#onCreate()}. Calling it is optional, it does not change any behavior.
+     *
+     * @return a {@link Future} which completes when warming up has finished
+     */
+    @AnyThread
+    public static Future<Void> warmUp(@NonNull Context context) {
+        final var applicationContext = context.getApplicationContext();
+        final var executor = Executors.newSingleThreadExecutor();
+        try {
+            return executor.submit(() -> {
+                final var typedValue = new TypedValue();
+                applicationContext.getTheme().resolveAttribute(androidx.appcompat.R.attr.colorPrimary, typedValue, true);
+                final var utils = ThemeUtils.Companion.of(typedValue.data);
+                utils.getPrimary(applicationContext);
+                utils.getSecondary(applicationContext);
+
+                removeMarkdown(WARM_UP_SAMPLE);
+                MarkwonMarkdownViewer.warmUp(applicationContext, typedValue.data, WARM_UP_SAMPLE);
+                return null;
+            });
+        } finally {
+            executor.shutdown();
+        }
+    }
+
 
     /**
      * {@link RemoteView}s have a limited subset of supported classes to maintain compatibility with many different launchers.
@@ -141,7 +226,7 @@ public class MarkdownUtil {
      */
     public static CharSequence renderForRemoteView(@NonNull Context context, @NonNull String content) {
         // Create HTML string from Markup
-        final String html = RENDERER.render(PARSER.parse(replaceCheckboxesWithEmojis(content)));
+        final String html = CommonMark.RENDERER.render(CommonMark.PARSER.parse(replaceCheckboxesWithEmojis(content)));
 
         // Create Spanned from HTML, with special handling for ordered list items
         final Spanned spanned = HtmlCompat.fromHtml(ListTagHandler.prepareTagHandling(html), 0, null, new ListTagHandler());
@@ -150,6 +235,16 @@ public class MarkdownUtil {
         return customizeQuoteSpanAppearance(context, spanned, 5, 30);
     }
 
+    /**
+     * Batch variant of {@link #renderForRemoteView(Context, String)} which renders the {@param contents} concurrently.
+     *
+     * @return the rendered {@param contents} in the same order, see {@link #renderBatch(List, Function)}
+     */
+    @AnyThread
+    public static Future<List<CharSequence>> renderForRemoteViewBatch(@NonNull Context context, @NonNull List<String> contents) {
+        return renderBatch(contents, content -> renderForRemoteView(context, content));
+    }
+
     @SuppressWarnings("SameParameterValue")
     private static Spanned customizeQuoteSpanAppearance(@NonNull Context context, @NonNull Spanned input, int stripeWidth, int gapWidth) {
         if (Build.VERSION.SDK_INT < Build.VERSION_CODES.P) {
@@ -167,20 +262,163 @@ public class MarkdownUtil {
         return ssb;
     }
 
-    @NonNull
-    public static String replaceCheckboxesWithEmojis(@NonNull String content) {
-        return runForEachCheckbox(content, (line) -> {
-            for (final var listType : EListType.values()) {
-                if (CHECKBOX_CHECKED_EMOJI.isPresent()) {
-                    line = line.replace(listType.checkboxChecked, CHECKBOX_CHECKED_EMOJI.get());
-                    line = line.replace(listType.checkboxCheckedUpperCase, CHECKBOX_CHECKED_EMOJI.get());
+    /**
+     * Renders the markdown read from {@param source} as HTML to {@param target} without holding the whole document, its AST and the resulting HTML in memory at the same time.
+     * The output is the same as rendering the whole document at once, except that link reference definitions only apply within their chunk.
+     * Checkboxes are replaced with emojis like in {@link #replaceCheckboxesWithEmojis(String)}.
+     * <p>
+     * Neither {@param source} nor {@param target} will be closed.
+     */
+    @WorkerThread
+    public static void exportHtml(@NonNull Reader source, @NonNull Appendable target) throws IOException {
+        exportHtml(source, target, EXPORT_CHUNK_LENGTH);
+    }
+
+    /**
+     * Same as {@link #exportHtml(Reader, Appendable)}, but writes UTF-8 encoded bytes to {@param target}.
+     */
+    @WorkerThread
+    public static void exportHtml(@NonNull Reader source, @NonNull OutputStream target) throws IOException {
+        final var writer = new BufferedWriter(new OutputStreamWriter(target, StandardCharsets.UTF_8));
+        exportHtml(source, writer);
+        writer.flush();
+    }
+
+    /**
+     * Reads {@param source} line by line and collects them in a chunk. As soon as the chunk exceeds {@param chunkLength}, it gets parsed and rendered at the next top level block which is not part of a fenced code block or a list.
+     * <p>
+     * Fenced code blocks which start at the beginning of a line after a blank line are streamed to {@param target} once they exceed {@param chunkLength}, so they can be of any length.
+     * Lists are never split, because their rendering depends on all of their items, so a single list is kept in memory completely.
+     */
+    @VisibleForTesting
+    static void exportHtml(@NonNull Reader source, @NonNull Appendable target, int chunkLength) throws IOException {
+        final var reader = source instanceof BufferedReader bufferedReader ? bufferedReader : new BufferedReader(source);
+        final var chunk = new StringBuilder();
+        String fence = null;
+        String fenceInfo = null;
+        // Offset of the current fenced code block in the chunk or -1 if it can not be streamed
+        int fenceStart = -1;
+        boolean streaming = false;
+        boolean previousLineBlank = false;
+
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (fence == null) {
+                if (previousLineBlank && chunk.length() >= chunkLength && startsTopLevelBlock(line)) {
+                    CommonMark.RENDERER.render(CommonMark.PARSER.parse(chunk.toString()), target);
+                    chunk.setLength(0);
+                }
+
+                final var matcher = PATTERN_EXPORT_FENCE.matcher(line);
+                if (matcher.matches() && (matcher.group(1).charAt(0) == '~' || matcher.group(2).indexOf('`') < 0)) {
+                    fence = matcher.group(1);
+                    fenceInfo = matcher.group(2).trim();
+                    // Backslash escapes and entities in the info string are left to the parser
+                    fenceStart = (previousLineBlank || chunk.length() == 0) && line.charAt(0) != ' ' && fenceInfo.indexOf('\\') < 0 && fenceInfo.indexOf('&') < 0
+                            ? chunk.length()
+                            : -1;
+                } else if (isCheckboxLine(line)) {
+                    line = replaceCheckboxWithEmoji(line);
+                }
+
+                chunk.append(line).append('\n');
+                previousLineBlank = line.trim().isEmpty();
+            } else if (isClosingFence(line, fence)) {
+                if (streaming) {
+                    target.append("</code></pre>\n");
+                    streaming = false;
+                } else {
+                    chunk.append(line).append('\n');
                 }
-                if (CHECKBOX_UNCHECKED_EMOJI.isPresent()) {
-                    line = line.replace(listType.checkboxUnchecked, CHECKBOX_UNCHECKED_EMOJI.get());
+                fence = null;
+                previousLineBlank = false;
+            } else if (streaming) {
+                appendEscapedHtml(target, line, 0, line.length());
+                target.append('\n');
+            } else {
+                chunk.append(line).append('\n');
+                if (fenceStart >= 0 && chunk.length() >= chunkLength) {
+                    if (fenceStart > 0) {
+                        CommonMark.RENDERER.render(CommonMark.PARSER.parse(chunk.substring(0, fenceStart)), target);
+                    }
+                    // Same output as the HtmlRenderer produces for a fenced code block
+                    target.append("<pre><code");
+                    if (!fenceInfo.isEmpty()) {
+                        final int space = fenceInfo.indexOf(' ');
+                        target.append(" class=\"language-");
+                        appendEscapedHtml(target, fenceInfo, 0, space < 0 ? fenceInfo.length() : space);
+                        target.append('"');
+                    }
+                    target.append('>');
+                    appendEscapedHtml(target, chunk, chunk.indexOf("\n", fenceStart) + 1, chunk.length());
+                    chunk.setLength(0);
+                    streaming = true;
                 }
             }
-            return line;
-        });
+        }
+
+        if (streaming) {
+            // Unclosed fenced code blocks end with the document
+            target.append("</code></pre>\n");
+        } else if (chunk.length() > 0) {
+            CommonMark.RENDERER.render(CommonMark.PARSER.parse(chunk.toString()), target);
+        }
+    }
+
+    private static boolean isClosingFence(@NonNull String line, @NonNull String fence) {
+        int indention = 0;
+        while (indention < line.length() && indention < 3 && line.charAt(indention) == ' ') {
+            indention++;
+        }
+
+        int length = 0;
+        while (indention + length < line.length() && line.charAt(indention + length) == fence.charAt(0)) {
+            length++;
+        }
+
+        return length >= fence.length() && line.substring(indention + length).trim().isEmpty();
+    }
+
+    private static void appendEscapedHtml(@NonNull Appendable target, @NonNull CharSequence text, int start, int end) throws IOException {
+        for (int i = start; i < end; i++) {
+            final char c = text.charAt(i);
+            switch (c) {
+                case '&' -> target.append("&amp;");
+                case '<' -> target.append("&lt;");
+                case '>' -> target.append("&gt;");
+                case '"' -> target.append("&quot;");
+                default -> target.append(c);
+            }
+        }
+    }
+
+    /**
+     * @return whether a block starting with {@param line} after a blank line is independent of the previous blocks
+     */
+    private static boolean startsTopLevelBlock(@NonNull String line) {
+        return !line.isEmpty()
+                && !Character.isWhitespace(line.charAt(0))
+                && lineStartsWithList(line).isEmpty()
+                && getOrderedListNumber(line).isEmpty();
+    }
+
+    @NonNull
+    public static String replaceCheckboxesWithEmojis(@NonNull String content) {
+        return runForEachCheckbox(content, MarkdownUtil::replaceCheckboxWithEmoji);
+    }
+
+    @NonNull
+    private static String replaceCheckboxWithEmoji(@NonNull String line) {
+        for (final var listType : EListType.values()) {
+            if (CheckboxEmojis.CHECKED.isPresent()) {
+                line = line.replace(listType.checkboxChecked, CheckboxEmojis.CHECKED.get());
+                line = line.replace(listType.checkboxCheckedUpperCase, CheckboxEmojis.CHECKED.get());
+            }
+            if (CheckboxEmojis.UNCHECKED.isPresent()) {
+                line = line.replace(listType.checkboxUnchecked, CheckboxEmojis.UNCHECKED.get());
+            }
+        }
+        return line;
     }
 
     @NonNull
@@ -278,11 +516,12 @@ public class MarkdownUtil {
     }
 
     public static int getEndOfLine(@NonNull CharSequence s, int cursorPosition) {
-        int nextLinebreak = s.toString().indexOf('\n', cursorPosition);
-        if (nextLinebreak > -1) {
-            return nextLinebreak;
+        // Scans the characters instead of calling toString(), which would copy the whole document
+        int endOfLine = Math.min(Math.max(cursorPosition, 0), s.length());
+        while (endOfLine < s.length() && s.charAt(endOfLine) != '\n') {
+            endOfLine++;
         }
-        return s.length();
+        return endOfLine;
     }
 
     public static Optional<String> getListItemIfIsEmpty(@NonNull String line) {
@@ -646,6 +885,28 @@ public class MarkdownUtil {
         }
     }
 
+    /**
+     * @param margin in pixels which will be added above and below the visible area
+     * @return the start and end offset of the currently visible part of the {@param textView}.
+     * Works for {@link TextView}s which scroll themselves as well as for ones which are placed in a scrolling parent.
+     * Returns <code>{0, 0}</code> if the {@param textView} has not been laid out yet or is not visible.
+     */
+    @NonNull
+    public static int[] getVisibleRange(@NonNull TextView textView, int margin) {
+        final var layout = textView.getLayout();
+        final var rect = new Rect();
+        if (layout == null || !textView.getLocalVisibleRect(rect)) {
+            return new int[]{0, 0};
+        }
+
+        final int top = Math.max(rect.top - textView.getTotalPaddingTop() - margin, 0);
+        final int bottom = Math.max(rect.bottom - textView.getTotalPaddingTop() + margin, 0);
+        final int length = textView.length();
+        final int start = layout.getLineStart(layout.getLineForVertical(top));
+        final int end = layout.getLineEnd(layout.getLineForVertical(bottom));
+        return new int[]{Math.min(start, length), Math.min(end, length)};
+    }
+
     public static String getMarkdownLink(@NonNull String content, @NonNull String url) {
         return "[" + content + "](" + url + ")";
     }
@@ -665,7 +926,88 @@ public class MarkdownUtil {
         if (TextUtils.isEmpty(s)) {
             return "";
         }
-        final String html = RENDERER.render(PARSER.parse(replaceCheckboxesWithEmojis(s)));
+        final String html = CommonMark.RENDERER.render(CommonMark.PARSER.parse(replaceCheckboxesWithEmojis(s)));
         return HtmlCompat.fromHtml(html, HtmlCompat.FROM_HTML_MODE_COMPACT).toString().trim();
     }
+
+    /**
+     * Batch variant of {@link #removeMarkdown(String)} which processes the {@param contents} concurrently.
+     *
+     * @return the plain text {@param contents} in the same order, see {@link #renderBatch(List, Function)}
+     */
+    @AnyThread
+    public static Future<List<String>> removeMarkdownBatch(@NonNull List<String> contents) {
+        return renderBatch(contents, MarkdownUtil::removeMarkdown);
+    }
+
+    /**
+     * Applies {@param render} to all {@param contents} on a bounded {@link ForkJoinPool}.
+     * The commonmark {@link Parser} and {@link HtmlRenderer} are immutable and therefore shared by all workers.
+     *
+     * @return a {@link Future} of the results in the order of {@param contents}. Cancelling it stops rendering the remaining {@param contents}.
+     */
+    @VisibleForTesting
+    @NonNull
+    static <T> Future<List<T>> renderBatch(@NonNull List<String> contents, @NonNull Function<String, T> render) {
+        return BatchRendering.POOL.submit(new BatchRenderTask<>(new ArrayList<>(contents), render));
+    }
+
+    /**
+     * Leaves at least one core for the UI thread. Created on first usage instead of when {@link MarkdownUtil} is loaded.
+     */
+    private static final class BatchRendering {
+        private static final ForkJoinPool POOL = new ForkJoinPool(Math.max(1, Runtime.getRuntime().availableProcessors() - 1));
+    }
+
+    private static final class BatchRenderTask<T> extends RecursiveTask<List<T>> {
+
+        @NonNull
+        private final List<String> contents;
+        @NonNull
+        private final Function<String, T> render;
+
+        private BatchRenderTask(@NonNull List<String> contents, @NonNull Function<String, T> render) {
+            this.contents = contents;
+            this.render = render;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        protected List<T> compute() {
+            final var results = new Object[contents.size()];
+            new RenderRange(results, 0, contents.size()).invoke();
+            return (List<T>) Collections.unmodifiableList(Arrays.asList(results));
+        }
+
+        /**
+         * Splits the range until it contains only a few documents, so long and short documents get balanced between the workers by work stealing.
+         */
+        private final class RenderRange extends RecursiveAction {
+
+            private static final int DOCUMENTS_PER_TASK = 4;
+
+            @NonNull
+            private final Object[] results;
+            private final int from;
+            private final int to;
+
+            private RenderRange(@NonNull Object[] results, int from, int to) {
+                this.results = results;
+                this.from = from;
+                this.to = to;
+            }
+
+            @Override
+            protected void compute() {
+                if (to - from <= DOCUMENTS_PER_TASK) {
+                    for (int i = from; i < to && !BatchRenderTask.this.isCancelled(); i++) {
+                        results[i] = render.apply(contents.get(i));
+                    }
+                } else {
+                    final int middle = (from + to) >>> 1;
+                    invokeAll(new RenderRange(results, from, middle), new RenderRange(results, middle, to));
+                }
+            }
+        }
+    }
 }
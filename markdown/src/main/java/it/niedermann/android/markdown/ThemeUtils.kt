@@ -7,6 +7,7 @@ import com.nextcloud.android.common.ui.theme.MaterialSchemes
 import com.nextcloud.android.common.ui.theme.MaterialSchemes.Companion.fromColor
 import com.nextcloud.android.common.ui.theme.ViewThemeUtilsBase
 import dynamiccolor.MaterialDynamicColors
+import java.util.concurrent.ConcurrentHashMap
 
 class ThemeUtils(schemes: MaterialSchemes) : ViewThemeUtilsBase(schemes) {
     private val dynamicColor = MaterialDynamicColors()
@@ -42,7 +43,7 @@ class ThemeUtils(schemes: MaterialSchemes) : ViewThemeUtilsBase(schemes) {
     }
 
     companion object {
-        private val cache = mutableMapOf<Int, ThemeUtils>()
+        private val cache = ConcurrentHashMap<Int, ThemeUtils>()
         fun of(color: Int): ThemeUtils {
             return cache.computeIfAbsent(color) {
                 ThemeUtils(fromColor(color))
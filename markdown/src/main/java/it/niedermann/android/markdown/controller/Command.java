@@ -18,6 +18,7 @@ import it.niedermann.android.markdown.controller.applier.ToggleOrderedListCa;
 import it.niedermann.android.markdown.controller.applier.ToggleUnorderedListCa;
 import it.niedermann.android.markdown.controller.stateresolver.CommandStateResolver;
 import it.niedermann.android.markdown.controller.stateresolver.LinkCsr;
+import it.niedermann.android.markdown.controller.stateresolver.SelectionContext;
 import it.niedermann.android.markdown.controller.stateresolver.ToggleBlockquoteCsr;
 import it.niedermann.android.markdown.controller.stateresolver.ToggleCheckboxCsr;
 import it.niedermann.android.markdown.controller.stateresolver.ToggleInlinePunctuationCsr;
@@ -52,14 +53,24 @@ public enum Command {
                              @NonNull Spannable content,
                              int selectionStart,
                              int selectionEnd) {
-        return ca != null && csr != null && csr.isEnabled(context, content, selectionStart, selectionEnd);
+        return isEnabled(context, SelectionContext.of(content, selectionStart, selectionEnd));
+    }
+
+    public boolean isEnabled(@NonNull Context context,
+                             @NonNull SelectionContext selection) {
+        return ca != null && csr != null && csr.isEnabled(context, selection);
     }
 
     public boolean isActive(@NonNull Context context,
                             @NonNull Spannable content,
                             int selectionStart,
                             int selectionEnd) {
-        return csr != null && csr.isActive(context, content, selectionStart, selectionEnd);
+        return isActive(context, SelectionContext.of(content, selectionStart, selectionEnd));
+    }
+
+    public boolean isActive(@NonNull Context context,
+                            @NonNull SelectionContext selection) {
+        return csr != null && csr.isActive(context, selection);
     }
 
     @NonNull
@@ -1,4 +1,22 @@
 package it.niedermann.android.markdown.controller;
 
+import androidx.annotation.NonNull;
+
 public record CommandState(boolean enabled, boolean active) {
-}
\ No newline at end of file
+
+    private static final CommandState DISABLED = new CommandState(false, false);
+    private static final CommandState DISABLED_ACTIVE = new CommandState(false, true);
+    private static final CommandState ENABLED = new CommandState(true, false);
+    private static final CommandState ENABLED_ACTIVE = new CommandState(true, true);
+
+    /**
+     * @return a shared instance instead of allocating a new one
+     */
+    @NonNull
+    public static CommandState of(boolean enabled, boolean active) {
+        if (enabled) {
+            return active ? ENABLED_ACTIVE : ENABLED;
+        }
+        return active ? DISABLED_ACTIVE : DISABLED;
+    }
+}
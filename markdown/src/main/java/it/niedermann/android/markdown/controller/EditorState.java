@@ -3,14 +3,15 @@ package it.niedermann.android.markdown.controller;
 import android.content.Context;
 import android.text.Spannable;
 
+import androidx.annotation.AnyThread;
 import androidx.annotation.ColorInt;
 import androidx.annotation.NonNull;
-import androidx.annotation.WorkerThread;
 
-import java.util.HashMap;
+import java.util.Collections;
+import java.util.EnumMap;
 import java.util.Map;
-import java.util.concurrent.CountDownLatch;
-import java.util.concurrent.ExecutorService;
+
+import it.niedermann.android.markdown.controller.stateresolver.SelectionContext;
 
 public record EditorState(
         @NonNull Map<Command, CommandState> commands,
@@ -18,37 +19,30 @@ public record EditorState(
 ) {
 
     public static class Factory {
-        @WorkerThread
+
+        /**
+         * Analyzes the selection once and derives the {@link CommandState}s of all {@link Command}s from it.
+         */
+        @AnyThread
         @NonNull
         public EditorState build(@NonNull Context context,
-                                 @NonNull ExecutorService executor,
                                  boolean editorIsEnabled,
                                  @ColorInt int color,
                                  @NonNull Spannable content,
                                  int selectionStart,
-                                 int selectionEnd) throws InterruptedException {
+                                 int selectionEnd) {
 
-            final int commandCount = Command.values().length;
-            final var latch = new CountDownLatch(commandCount);
-            final var commandStates = new HashMap<Command, CommandState>(commandCount);
+            final var selection = SelectionContext.of(content, selectionStart, selectionEnd);
+            final var commandStates = new EnumMap<Command, CommandState>(Command.class);
 
             for (final var command : Command.values()) {
-                executor.submit(() -> {
-                    try {
-                        final var state = new CommandState(
-                                editorIsEnabled && command.isEnabled(context, content, selectionStart, selectionEnd),
-                                command.isActive(context, content, selectionStart, selectionEnd)
-                        );
-
-                        commandStates.put(command, state);
-                    } finally {
-                        latch.countDown();
-                    }
-                });
+                commandStates.put(command, CommandState.of(
+                        editorIsEnabled && command.isEnabled(context, selection),
+                        command.isActive(context, selection)
+                ));
             }
 
-            latch.await();
-            return new EditorState(commandStates, color);
+            return new EditorState(Collections.unmodifiableMap(commandStates), color);
         }
     }
 }
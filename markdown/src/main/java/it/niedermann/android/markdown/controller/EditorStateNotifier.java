@@ -1,7 +1,5 @@
 package it.niedermann.android.markdown.controller;
 
-import static java.util.function.Predicate.not;
-
 import android.content.Context;
 import android.text.Spannable;
 
@@ -10,63 +8,60 @@ import androidx.annotation.ColorInt;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.annotation.VisibleForTesting;
+import androidx.annotation.WorkerThread;
 
 import java.util.Collection;
-import java.util.HashSet;
-import java.util.List;
 import java.util.Objects;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
-import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
-import java.util.function.Function;
-import java.util.function.Supplier;
+import java.util.concurrent.atomic.AtomicReference;
 
+/**
+ * Calculates the {@link EditorState} on one long-living worker and delivers it to the {@link EditorStateListener}s.
+ * While the worker is busy, only the latest requested {@link #notify(Context, boolean, int, Spannable, int, int) notification} is kept, intermediate ones are dropped.
+ */
 public class EditorStateNotifier {
 
     @NonNull
     private final Collection<? extends EditorStateListener> listeners;
+    /**
+     * Runs all notifications one after another, so {@link #lastNotifiedState} is only accessed by this worker
+     */
     @NonNull
-    private final ExecutorService firstNotifyExecutorService;
-    @NonNull
-    private final Collection<ExecutorService> executors = new HashSet<>(2);
-    @NonNull
-    private final Supplier<ExecutorService> executorFactory;
-    @NonNull
-    private final Function<Integer, ExecutorService> commandStateBuilderExecutorFactory;
+    private final ExecutorService worker;
     @NonNull
     private final EditorState.Factory editorStateFactory;
+    @NonNull
+    private final AtomicReference<Notification> pendingNotification = new AtomicReference<>();
     @Nullable
     private EditorState lastNotifiedState;
 
     public EditorStateNotifier(@NonNull Collection<? extends EditorStateListener> listeners) {
         this(
                 listeners,
-                Executors::newSingleThreadExecutor,
-                Executors::newFixedThreadPool,
-                new CommandExecutor(),
+                new IdleTimeoutExecutor(),
                 new EditorState.Factory()
         );
     }
 
     @VisibleForTesting
     protected EditorStateNotifier(@NonNull Collection<? extends EditorStateListener> listeners,
-                                  @NonNull Supplier<ExecutorService> executorFactory,
-                                  @NonNull Function<Integer, ExecutorService> commandStateBuilderExecutorFactory,
-                                  @NonNull ExecutorService firstNotifyExecutorService,
+                                  @NonNull ExecutorService worker,
                                   @NonNull EditorState.Factory editorStateFactory
     ) {
         this.listeners = listeners;
-        this.executorFactory = executorFactory;
-        this.commandStateBuilderExecutorFactory = commandStateBuilderExecutorFactory;
-        this.firstNotifyExecutorService = firstNotifyExecutorService;
+        this.worker = worker;
         this.editorStateFactory = editorStateFactory;
     }
 
+    /**
+     * Notifies only the given {@param listener}, no matter whether the state has already been notified before.
+     * Runs on the same worker as {@link #notify(Context, boolean, int, Spannable, int, int)}, so both can not interfere with each other.
+     */
     @AnyThread
     public Future<Void> forceNotify(@NonNull Context context,
                                     @NonNull EditorStateListener listener,
@@ -75,11 +70,8 @@ public class EditorStateNotifier {
                                     @NonNull Spannable content,
                                     int selectionStart,
                                     int selectionEnd) {
-
-        // FIXME This way a race condition with notify is possible
-        return firstNotifyExecutorService.submit(() -> {
+        return worker.submit(() -> {
             final var state = editorStateFactory.build(context,
-                    firstNotifyExecutorService,
                     editorIsEnabled,
                     color,
                     content,
@@ -87,14 +79,15 @@ public class EditorStateNotifier {
                     selectionEnd);
 
             listener.onEditorStateChanged(state);
-            lastNotifiedState = state;
-
             return null;
         });
     }
 
+    /**
+     * @return a {@link Future} which completes as soon as this or a newer state has been delivered to the {@link #listeners}
+     */
     @AnyThread
-    public Future<Void> notify(@NonNull Context context,
+    public CompletableFuture<Void> notify(@NonNull Context context,
                                boolean editorIsEnabled,
                                @ColorInt int color,
                                @NonNull Spannable content,
@@ -105,54 +98,88 @@ public class EditorStateNotifier {
             return CompletableFuture.completedFuture(null);
         }
 
-        final var executor = executorFactory.get();
-        final var commandExecutor = commandStateBuilderExecutorFactory.apply(Command.values().length);
-
-        synchronized (executors) {
-            executors.stream()
-                    .filter(not(ExecutorService::isShutdown))
-                    .forEach(ExecutorService::shutdownNow);
-            executors.removeIf(ExecutorService::isShutdown);
-            executors.addAll(List.of(executor, commandExecutor));
+        final var notification = new Notification(context, editorIsEnabled, color, content, selectionStart, selectionEnd);
+        final var previous = pendingNotification.getAndSet(notification);
+
+        if (previous == null) {
+            worker.execute(this::processPendingNotification);
+        } else {
+            // The previous notification has not been processed yet and will be superseded by this one
+            notification.result.whenComplete((result, throwable) -> {
+                if (throwable == null) {
+                    previous.result.complete(result);
+                } else {
+                    previous.result.completeExceptionally(throwable);
+                }
+            });
         }
 
-        return executor.submit(() -> {
-            try {
-                final var state = editorStateFactory.build(context,
-                        commandExecutor,
-                        editorIsEnabled,
-                        color,
-                        content,
-                        selectionStart,
-                        selectionEnd);
-
-                if (Objects.equals(state, lastNotifiedState)) {
-                    return null;
-                }
+        return notification.result;
+    }
 
-                listeners.forEach(listener -> {
-                    if (!executor.isShutdown()) {
-                        listener.onEditorStateChanged(state);
-                        lastNotifiedState = state;
-                    }
-                });
+    @WorkerThread
+    private void processPendingNotification() {
+        final var notification = pendingNotification.getAndSet(null);
+        if (notification == null) {
+            return;
+        }
 
-            } finally {
-                executor.shutdown();
-                commandExecutor.shutdown();
+        try {
+            final var state = editorStateFactory.build(notification.context,
+                    notification.editorIsEnabled,
+                    notification.color,
+                    notification.content,
+                    notification.selectionStart,
+                    notification.selectionEnd);
+
+            if (!Objects.equals(state, lastNotifiedState)) {
+                listeners.forEach(listener -> listener.onEditorStateChanged(state));
+                lastNotifiedState = state;
             }
 
-            return null;
-        });
+            notification.result.complete(null);
+        } catch (Throwable t) {
+            notification.result.completeExceptionally(t);
+        }
+    }
+
+    private static class Notification {
+
+        @NonNull
+        private final CompletableFuture<Void> result = new CompletableFuture<>();
+        @NonNull
+        private final Context context;
+        private final boolean editorIsEnabled;
+        @ColorInt
+        private final int color;
+        @NonNull
+        private final Spannable content;
+        private final int selectionStart;
+        private final int selectionEnd;
+
+        private Notification(@NonNull Context context,
+                             boolean editorIsEnabled,
+                             @ColorInt int color,
+                             @NonNull Spannable content,
+                             int selectionStart,
+                             int selectionEnd) {
+            this.context = context;
+            this.editorIsEnabled = editorIsEnabled;
+            this.color = color;
+            this.content = content;
+            this.selectionStart = selectionStart;
+            this.selectionEnd = selectionEnd;
+        }
     }
 
     /**
-     * {@link Executor} optimized to submit {@link Command} related operations
+     * Keeps its thread only while there is work to do, so idle editors do not hold any threads
      */
-    private static class CommandExecutor extends ThreadPoolExecutor {
+    private static class IdleTimeoutExecutor extends ThreadPoolExecutor {
 
-        public CommandExecutor() {
-            super(Command.values().length + 1, Integer.MAX_VALUE, 5L, TimeUnit.SECONDS, new SynchronousQueue<>());
+        public IdleTimeoutExecutor() {
+            super(1, 1, 5L, TimeUnit.SECONDS, new LinkedBlockingQueue<>());
+            allowCoreThreadTimeOut(true);
         }
     }
 }
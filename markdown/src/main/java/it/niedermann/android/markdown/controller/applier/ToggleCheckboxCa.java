@@ -1,60 +1,43 @@
 package it.niedermann.android.markdown.controller.applier;
 
-import android.content.Context;
-import android.text.Editable;
-
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
 import it.niedermann.android.markdown.MarkdownUtil;
 import it.niedermann.android.markdown.model.EListType;
 
-public class ToggleCheckboxCa implements CommandApplier {
+public class ToggleCheckboxCa extends ToggleLinePrefixCa {
 
     @Override
-    public @NonNull CommandApplierResult applyCommand(@NonNull Context context,
-                                                      @NonNull Editable content,
-                                                      int selectionStart,
-                                                      int selectionEnd) {
-        final var startOfLine = MarkdownUtil.getStartOfLine(content, selectionStart);
-        final var endOfLine = MarkdownUtil.getEndOfLine(content, selectionEnd);
-
-        @Nullable
-        EListType listType = null;
+    protected int getPrefixLength(@NonNull String line, int indention) {
         for (final var type : EListType.values()) {
-            if (MarkdownUtil.lineStartsWithCheckbox(content.subSequence(startOfLine, endOfLine).toString(), type)) {
-                listType = type;
-                break;
+            if (line.startsWith(type.checkboxUnchecked, indention)
+                    || line.startsWith(type.checkboxChecked, indention)
+                    || line.startsWith(type.checkboxCheckedUpperCase, indention)) {
+                final int end = indention + type.checkboxUnchecked.length();
+                return end < line.length() && line.charAt(end) == ' '
+                        ? type.checkboxUncheckedWithTrailingSpace.length()
+                        : type.checkboxUnchecked.length();
             }
         }
+        return -1;
+    }
 
-        final int newSelection;
+    @NonNull
+    @Override
+    protected String createPrefix(@Nullable String previousLine, int index, @Nullable String existingPrefix) {
+        if (existingPrefix != null) {
+            // Keeps the state of existing checkboxes
+            return existingPrefix;
+        }
 
-        if (listType == null) {
-            @Nullable
-            EListType previousLineListType = EListType.DASH;
-            if (startOfLine > 0) {
-                final var startOfPreviousLine = MarkdownUtil.getStartOfLine(content, startOfLine - 1);
-                for (final var type : EListType.values()) {
-                    if (MarkdownUtil.lineStartsWithCheckbox(content.subSequence(startOfPreviousLine, startOfLine).toString(), type)) {
-                        previousLineListType = type;
-                        break;
-                    }
+        if (previousLine != null) {
+            for (final var type : EListType.values()) {
+                if (MarkdownUtil.lineStartsWithCheckbox(previousLine, type)) {
+                    return type.checkboxUncheckedWithTrailingSpace;
                 }
             }
-
-            content.insert(MarkdownUtil.getStartOfLine(content, selectionStart), previousLineListType.checkboxUncheckedWithTrailingSpace);
-            newSelection = selectionEnd + previousLineListType.checkboxUncheckedWithTrailingSpace.length();
-        } else {
-            if (startOfLine + listType.checkboxUncheckedWithTrailingSpace.length() > endOfLine) {
-                content.replace(startOfLine, startOfLine + listType.checkboxUnchecked.length(), "");
-                newSelection = selectionEnd - listType.checkboxUnchecked.length();
-            } else {
-                content.replace(startOfLine, startOfLine + listType.checkboxUncheckedWithTrailingSpace.length(), "");
-                newSelection = selectionEnd - listType.checkboxUncheckedWithTrailingSpace.length();
-            }
         }
-
-        return new CommandApplierResult(content, newSelection);
+        return EListType.DASH.checkboxUncheckedWithTrailingSpace;
     }
 }
@@ -0,0 +1,170 @@
+package it.niedermann.android.markdown.controller.applier;
+
+import android.content.Context;
+import android.text.Editable;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import it.niedermann.android.markdown.MarkdownUtil;
+
+/**
+ * Toggles a prefix like a list symbol on all lines touched by the selection.
+ * If all of them already start with the prefix, it gets removed, otherwise it gets added to the lines lacking it.
+ * Blank lines of multi-line selections are skipped.
+ * When adding the prefix, lines indented deeper than the first touched line which already start with it, like nested list items, are kept as they are.
+ * <p>
+ * All lines are processed in a single pass and written back with a single replacement, so the whole change is one edit.
+ */
+abstract class ToggleLinePrefixCa implements CommandApplier {
+
+    @Override
+    public @NonNull CommandApplierResult applyCommand(@NonNull Context context,
+                                                      @NonNull Editable content,
+                                                      int selectionStart,
+                                                      int selectionEnd) {
+        final int blockStart = MarkdownUtil.getStartOfLine(content, selectionStart);
+        final int selectedEnd = MarkdownUtil.getEndOfLine(content, selectionEnd);
+        final String[] selectedLines = content.subSequence(blockStart, selectedEnd).toString().split("\n", -1);
+        final boolean multiline = selectedLines.length > 1;
+        final int blockIndention = getIndention(selectedLines[0]);
+
+        boolean remove = true;
+        for (final var line : selectedLines) {
+            if (!isSkipped(line, multiline) && getPrefixLength(line, getIndention(line)) < 0) {
+                remove = false;
+                break;
+            }
+        }
+
+        int blockEnd = selectedEnd;
+        if (!remove && continuesAfterSelection()) {
+            // Following lines with the prefix at the same indention become part of the block, e.g. to renumber them.
+            // Deeper indented lines between them, like nested items, are kept as they are. A shallower indented line ends the block.
+            int lineEnd = selectedEnd;
+            while (lineEnd < content.length()) {
+                final int nextLineEnd = MarkdownUtil.getEndOfLine(content, lineEnd + 1);
+                final var nextLine = content.subSequence(lineEnd + 1, nextLineEnd).toString();
+                final int nextIndention = getIndention(nextLine);
+                if (nextLine.trim().isEmpty() || nextIndention < blockIndention) {
+                    break;
+                }
+                if (nextIndention == blockIndention) {
+                    if (getPrefixLength(nextLine, nextIndention) < 0) {
+                        break;
+                    }
+                    blockEnd = nextLineEnd;
+                }
+                lineEnd = nextLineEnd;
+            }
+        }
+
+        final String[] lines = blockEnd == selectedEnd
+                ? selectedLines
+                : content.subSequence(blockStart, blockEnd).toString().split("\n", -1);
+        @Nullable final String previousLine = getPreviousLine(content, blockStart, blockIndention);
+
+        final var block = new StringBuilder(blockEnd - blockStart + lines.length * 8);
+        int newSelection = selectionEnd;
+        int lineStart = blockStart;
+        int delta = 0;
+        int index = 0;
+
+        for (int i = 0; i < lines.length; i++) {
+            final var line = lines[i];
+            if (i > 0) {
+                block.append('\n');
+            }
+
+            final int indention = getIndention(line);
+            final int prefixLength = getPrefixLength(line, indention);
+            final String newPrefix;
+            if (isSkipped(line, multiline)) {
+                newPrefix = null;
+            } else if (remove) {
+                newPrefix = "";
+            } else if (indention > blockIndention && (prefixLength >= 0 || i >= selectedLines.length)) {
+                // Nested items and the lines following the selection between them do not belong to this block
+                newPrefix = null;
+            } else {
+                newPrefix = createPrefix(previousLine, index++, prefixLength < 0 ? null : line.substring(indention, indention + prefixLength));
+            }
+
+            final int removed = newPrefix == null ? 0 : Math.max(prefixLength, 0);
+            final int inserted = newPrefix == null ? 0 : newPrefix.length();
+            if (newPrefix == null) {
+                block.append(line);
+            } else {
+                block.append(line, 0, indention).append(newPrefix).append(line, indention + removed, line.length());
+            }
+
+            final int lineEnd = lineStart + line.length();
+            if (selectionEnd >= lineStart && selectionEnd <= lineEnd) {
+                final int column = selectionEnd - lineStart;
+                newSelection = lineStart + delta + (column < indention
+                        ? column
+                        : indention + inserted + Math.max(0, column - indention - removed));
+            }
+            delta += inserted - removed;
+            lineStart = lineEnd + 1;
+        }
+
+        content.replace(blockStart, blockEnd, block);
+        return new CommandApplierResult(content, newSelection);
+    }
+
+    /**
+     * @return the closest line before {@param blockStart} with the same {@param indention}, skipping deeper indented ones like nested items.
+     * A blank line is returned as well, a shallower indented one leads to <code>null</code>.
+     */
+    @Nullable
+    private static String getPreviousLine(@NonNull CharSequence content, int blockStart, int indention) {
+        int lineEnd = blockStart - 1;
+        while (lineEnd >= 0) {
+            final int lineStart = MarkdownUtil.getStartOfLine(content, lineEnd);
+            final var line = content.subSequence(lineStart, lineEnd).toString();
+            final int lineIndention = getIndention(line);
+            if (line.trim().isEmpty() || lineIndention == indention) {
+                return line;
+            }
+            if (lineIndention < indention) {
+                return null;
+            }
+            lineEnd = lineStart - 1;
+        }
+        return null;
+    }
+
+    private static boolean isSkipped(@NonNull String line, boolean multiline) {
+        return multiline && line.trim().isEmpty();
+    }
+
+    private static int getIndention(@NonNull String line) {
+        int indention = 0;
+        while (indention < line.length() && (line.charAt(indention) == ' ' || line.charAt(indention) == '\t')) {
+            indention++;
+        }
+        return indention;
+    }
+
+    /**
+     * @return the length of the prefix {@param line} starts with after its {@param indention} or <code>-1</code> if it does not start with the prefix
+     */
+    protected abstract int getPrefixLength(@NonNull String line, int indention);
+
+    /**
+     * @param previousLine   the closest line before the first touched one at the same indention, skipping nested items, if any
+     * @param index          the number of prefixes which have been created before in this block
+     * @param existingPrefix the prefix the line already starts with
+     * @return the prefix to start the line with
+     */
+    @NonNull
+    protected abstract String createPrefix(@Nullable String previousLine, int index, @Nullable String existingPrefix);
+
+    /**
+     * @return whether the lines following the selection which start with the prefix should also be {@link #createPrefix(String, int, String) recreated} when adding the prefix
+     */
+    protected boolean continuesAfterSelection() {
+        return false;
+    }
+}
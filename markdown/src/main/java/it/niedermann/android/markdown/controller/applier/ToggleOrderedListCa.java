@@ -1,44 +1,49 @@
 package it.niedermann.android.markdown.controller.applier;
 
-import static it.niedermann.android.markdown.MarkdownUtil.getOrderedListNumber;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 
-import android.content.Context;
-import android.text.Editable;
+import java.util.regex.Pattern;
 
-import androidx.annotation.NonNull;
+/**
+ * Numbers all touched lines consecutively, continuing an ordered list above them. Following items of the list at the same indention are renumbered as well, nested items are kept.
+ */
+public class ToggleOrderedListCa extends ToggleLinePrefixCa {
 
-import it.niedermann.android.markdown.MarkdownUtil;
+    private static final Pattern PATTERN_ORDERED_LIST_PREFIX = Pattern.compile("(\\d+)\\.( |$)");
 
-public class ToggleOrderedListCa implements CommandApplier {
+    @Override
+    protected int getPrefixLength(@NonNull String line, int indention) {
+        final var matcher = PATTERN_ORDERED_LIST_PREFIX.matcher(line).region(indention, line.length());
+        return matcher.lookingAt() ? matcher.end() - indention : -1;
+    }
 
+    @NonNull
     @Override
-    public @NonNull CommandApplierResult applyCommand(@NonNull Context context,
-                                                      @NonNull Editable content,
-                                                      int selectionStart,
-                                                      int selectionEnd) {
-        final var startOfLine = MarkdownUtil.getStartOfLine(content, selectionStart);
-        final var endOfLine = MarkdownUtil.getEndOfLine(content, selectionEnd);
-        final var orderedListNumber = getOrderedListNumber(content.subSequence(startOfLine, endOfLine).toString());
-
-        final int newSelection;
-
-        if (orderedListNumber.isPresent()) {
-            final var lengthOfStringToRemove = String.valueOf(orderedListNumber.get()).length() + ". ".length();
-            content.replace(startOfLine, lengthOfStringToRemove, "");
-            newSelection = selectionEnd - lengthOfStringToRemove;
-        } else {
-            int startingNumber = 1;
-
-            if (startOfLine > 0) {
-                final var startOfPreviousLine = MarkdownUtil.getStartOfLine(content, startOfLine - 1);
-                startingNumber = MarkdownUtil.getOrderedListNumber(content.subSequence(startOfPreviousLine, startOfLine).toString()).orElse(1);
-            }
+    protected String createPrefix(@Nullable String previousLine, int index, @Nullable String existingPrefix) {
+        return (getNumber(previousLine) + 1 + index) + ". ";
+    }
 
-            final var prefix = startingNumber + ". ";
-            content.insert(startOfLine, prefix);
-            newSelection = selectionStart + prefix.length();
-        }
+    @Override
+    protected boolean continuesAfterSelection() {
+        return true;
+    }
 
-        return new CommandApplierResult(content, newSelection);
+    /**
+     * @return the number of the ordered list item {@param line} or <code>0</code> if it is not an ordered list item
+     */
+    private static int getNumber(@Nullable String line) {
+        if (line == null) {
+            return 0;
+        }
+        final var matcher = PATTERN_ORDERED_LIST_PREFIX.matcher(line.trim());
+        if (matcher.lookingAt()) {
+            try {
+                return Integer.parseInt(matcher.group(1));
+            } catch (NumberFormatException e) {
+                return 0;
+            }
+        }
+        return 0;
     }
 }
@@ -1,42 +1,33 @@
 package it.niedermann.android.markdown.controller.applier;
 
-import android.content.Context;
-import android.text.Editable;
-
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 
 import it.niedermann.android.markdown.MarkdownUtil;
 import it.niedermann.android.markdown.model.EListType;
 
-public class ToggleUnorderedListCa implements CommandApplier {
+public class ToggleUnorderedListCa extends ToggleLinePrefixCa {
 
     @Override
-    public @NonNull CommandApplierResult applyCommand(@NonNull Context context,
-                                                      @NonNull Editable content,
-                                                      int selectionStart,
-                                                      int selectionEnd) {
-        final var startOfLine = MarkdownUtil.getStartOfLine(content, selectionStart);
-        final var endOfLine = MarkdownUtil.getEndOfLine(content, selectionEnd);
-        final var optionalListType = MarkdownUtil.lineStartsWithList(content.subSequence(startOfLine, endOfLine).toString());
-
-        final int newSelection;
-
-        if (optionalListType.isPresent()) {
-            content.replace(startOfLine, optionalListType.get().listSymbolWithTrailingSpace.length(), "");
-            newSelection = selectionEnd - optionalListType.get().listSymbolWithTrailingSpace.length();
-        } else {
-            final EListType listType;
-            if (startOfLine == 0) {
-                listType = EListType.DASH;
-            } else {
-                final var startOfPreviousLine = MarkdownUtil.getStartOfLine(content, startOfLine - 1);
-                listType = MarkdownUtil.lineStartsWithList(content.subSequence(startOfPreviousLine, startOfLine).toString()).orElse(EListType.DASH);
+    protected int getPrefixLength(@NonNull String line, int indention) {
+        for (final var type : EListType.values()) {
+            if (line.startsWith(type.listSymbolWithTrailingSpace, indention)) {
+                return type.listSymbolWithTrailingSpace.length();
             }
+        }
+        return -1;
+    }
 
-            content.insert(startOfLine, listType.listSymbolWithTrailingSpace);
-            newSelection = selectionStart + listType.listSymbolWithTrailingSpace.length();
+    @NonNull
+    @Override
+    protected String createPrefix(@Nullable String previousLine, int index, @Nullable String existingPrefix) {
+        if (existingPrefix != null) {
+            return existingPrefix;
         }
 
-        return new CommandApplierResult(content, newSelection);
+        final var listType = previousLine == null
+                ? EListType.DASH
+                : MarkdownUtil.lineStartsWithList(previousLine).orElse(EListType.DASH);
+        return listType.listSymbolWithTrailingSpace;
     }
 }
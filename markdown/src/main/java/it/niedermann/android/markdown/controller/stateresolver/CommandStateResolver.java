@@ -7,13 +7,23 @@ import androidx.annotation.NonNull;
 
 public interface CommandStateResolver {
 
+    default boolean isEnabled(@NonNull Context context,
+                              @NonNull Spannable content,
+                              int selectionStart,
+                              int selectionEnd) {
+        return isEnabled(context, SelectionContext.of(content, selectionStart, selectionEnd));
+    }
+
+    default boolean isActive(@NonNull Context context,
+                             @NonNull Spannable content,
+                             int selectionStart,
+                             int selectionEnd) {
+        return isActive(context, SelectionContext.of(content, selectionStart, selectionEnd));
+    }
+
     boolean isEnabled(@NonNull Context context,
-                      @NonNull Spannable content,
-                      int selectionStart,
-                      int selectionEnd);
+                      @NonNull SelectionContext selection);
 
     boolean isActive(@NonNull Context context,
-                     @NonNull Spannable content,
-                     int selectionStart,
-                     int selectionEnd);
+                     @NonNull SelectionContext selection);
 }
@@ -0,0 +1,81 @@
+package it.niedermann.android.markdown.controller.stateresolver;
+
+import android.text.Spanned;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import it.niedermann.android.markdown.MarkdownUtil;
+import it.niedermann.android.markdown.model.EListType;
+
+/**
+ * Everything {@link CommandStateResolver}s need to know about the current selection, analyzed once for all of them.
+ *
+ * @param multiline   whether the selection spans more than one line
+ * @param checkbox    whether all lines containing the selection start with a checkbox
+ * @param listType    the type of the unordered list the first line containing the selection starts with, if all of them start with one
+ * @param orderedList whether all lines containing the selection start with an ordered list item
+ * @param inLink      whether the start or the end of the selection is inside of a link
+ */
+public record SelectionContext(
+        boolean multiline,
+        boolean checkbox,
+        @Nullable EListType listType,
+        boolean orderedList,
+        boolean inLink
+) {
+
+    /**
+     * Scans only the lines touched by the selection, other than the {@link MarkdownUtil} helpers which partially copy the whole {@param content}.
+     * Blank lines of multi-line selections are skipped like the line prefix toggling commands do, so a command is active exactly if applying it would remove its prefix.
+     */
+    @NonNull
+    public static SelectionContext of(@NonNull Spanned content, int selectionStart, int selectionEnd) {
+        if (selectionStart > content.length()) {
+            throw new IndexOutOfBoundsException("selection start was " + selectionStart + " but content length was only " + content.length());
+        }
+
+        if (selectionEnd > content.length()) {
+            throw new IndexOutOfBoundsException("selection end was " + selectionEnd + " but content length was only " + content.length());
+        }
+
+        if (selectionStart > selectionEnd) {
+            throw new IllegalArgumentException("selection end must be greater or equal to selection start");
+        }
+
+        final int linesStart = MarkdownUtil.getStartOfLine(content, selectionStart);
+        final int startLineEnd = MarkdownUtil.getEndOfLine(content, selectionStart);
+        final int linesEnd = MarkdownUtil.getEndOfLine(content, selectionEnd);
+        final var lines = content.subSequence(linesStart, linesEnd).toString();
+        final boolean multiline = startLineEnd < selectionEnd;
+
+        boolean blank = true;
+        boolean checkbox = true;
+        boolean list = true;
+        boolean orderedList = true;
+        EListType listType = null;
+        for (final var line : lines.split("\n", -1)) {
+            if (multiline && line.trim().isEmpty()) {
+                continue;
+            }
+            blank = false;
+            checkbox &= MarkdownUtil.lineStartsWithCheckbox(line);
+            orderedList &= MarkdownUtil.getOrderedListNumber(line.trim()).isPresent();
+            if (list) {
+                final var lineListType = MarkdownUtil.lineStartsWithList(line);
+                list = lineListType.isPresent();
+                if (listType == null) {
+                    listType = lineListType.orElse(null);
+                }
+            }
+        }
+
+        return new SelectionContext(
+                multiline,
+                !blank && checkbox,
+                blank || !list ? null : listType,
+                !blank && orderedList,
+                MarkdownUtil.selectionIsInLink(lines, selectionStart - linesStart, selectionEnd - linesStart)
+        );
+    }
+}
@@ -2,15 +2,22 @@ package it.niedermann.android.markdown.markwon;
 
 import android.content.Context;
 import android.os.Build;
-import android.text.SpannableStringBuilder;
+import android.os.Handler;
+import android.os.Looper;
+import android.text.Editable;
+import android.text.Spannable;
+import android.text.SpannableString;
 import android.text.TextWatcher;
 import android.util.AttributeSet;
 import android.util.Log;
 import android.util.TypedValue;
+import android.view.Choreographer;
 import android.view.View;
+import android.view.ViewTreeObserver;
 import android.widget.EditText;
 
 import androidx.annotation.ColorInt;
+import androidx.annotation.MainThread;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.annotation.RestrictTo;
@@ -29,6 +36,8 @@ import com.nextcloud.android.sso.model.SingleSignOnAccount;
 
 import java.util.Collection;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
 import java.util.Set;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.Future;
@@ -43,14 +52,15 @@ import io.noties.markwon.ext.strikethrough.StrikethroughPlugin;
 import io.noties.markwon.image.ImagesPlugin;
 import io.noties.markwon.inlineparser.MarkwonInlineParserPlugin;
 import io.noties.markwon.simple.ext.SimpleExtPlugin;
+import it.niedermann.android.markdown.EditLatencyListener;
 import it.niedermann.android.markdown.MarkdownEditor;
-import it.niedermann.android.markdown.MarkdownUtil;
 import it.niedermann.android.markdown.controller.Command;
 import it.niedermann.android.markdown.controller.CommandReceiver;
 import it.niedermann.android.markdown.controller.ControllerConnector;
 import it.niedermann.android.markdown.controller.EditorStateListener;
 import it.niedermann.android.markdown.controller.EditorStateNotifier;
 import it.niedermann.android.markdown.controller.MarkdownController;
+import it.niedermann.android.markdown.controller.applier.CommandApplier;
 import it.niedermann.android.markdown.markwon.format.ContextBasedFormattingCallback;
 import it.niedermann.android.markdown.markwon.handler.BlockQuoteEditHandler;
 import it.niedermann.android.markdown.markwon.handler.CodeBlockEditHandler;
@@ -60,7 +70,12 @@ import it.niedermann.android.markdown.markwon.handler.StrikethroughEditHandler;
 import it.niedermann.android.markdown.markwon.plugins.SearchHighlightPlugin;
 import it.niedermann.android.markdown.markwon.plugins.ThemePlugin;
 import it.niedermann.android.markdown.markwon.textwatcher.CombinedTextWatcher;
+import it.niedermann.android.markdown.markwon.textwatcher.EditLatencyTextWatcher;
+import it.niedermann.android.markdown.markwon.textwatcher.IncrementalHighlightTextWatcher;
 import it.niedermann.android.markdown.markwon.textwatcher.SearchHighlightTextWatcher;
+import it.niedermann.android.markdown.markwon.textwatcher.TextChangeTextWatcher;
+import it.niedermann.android.markdown.markwon.textwatcher.UndoRedoTextWatcher;
+import it.niedermann.android.markdown.model.TextChange;
 
 public class MarkwonMarkdownEditor extends AppCompatEditText implements MarkdownEditor, CommandReceiver, LifecycleOwner, View.OnAttachStateChangeListener {
 
@@ -73,8 +88,21 @@ public class MarkwonMarkdownEditor extends AppCompatEditText implements Markdown
     @Nullable
     private final Set<MarkdownController> controllers = new HashSet<>();
     private final EditorStateNotifier editorStateNotifier;
-    private final MutableLiveData<CharSequence> unrenderedText$ = new MutableLiveData<>();
+    private final MarkdownStringLiveData unrenderedText$ = new MarkdownStringLiveData();
+    private final Choreographer.FrameCallback publishMarkdownStringFrameCallback = frameTimeNanos -> publishMarkdownString();
+    private final Runnable publishMarkdownStringRunnable = this::publishMarkdownString;
+    /**
+     * Debounced updates must also be published while the view is detached, which {@link #postDelayed(Runnable, long)} would defer until it gets attached again
+     */
+    private final Handler publishMarkdownStringHandler = new Handler(Looper.getMainLooper());
+    private long markdownStringDebounceMillis = 0;
+    private boolean markdownStringUpdatePending = false;
     private final CombinedTextWatcher combinedWatcher;
+    private final TextChangeTextWatcher textChangeWatcher = new TextChangeTextWatcher();
+    private final UndoRedoTextWatcher undoRedoWatcher = new UndoRedoTextWatcher();
+    private final EditLatencyTextWatcher editLatencyWatcher = new EditLatencyTextWatcher();
+    private final ViewTreeObserver.OnScrollChangedListener onScrollChangedListener = this::onViewportChanged;
+    private final ViewTreeObserver.OnGlobalLayoutListener onGlobalLayoutListener = this::onViewportChanged;
     @ColorInt
     private int color;
 
@@ -106,8 +134,20 @@ public class MarkwonMarkdownEditor extends AppCompatEditText implements Markdown
         final var markwon = createMarkwonBuilder(context, color).build();
         final var editor = createMarkwonEditorBuilder(markwon).build();
 
+        setEditableFactory(SnapshotEditable.FACTORY);
         combinedWatcher = new CombinedTextWatcher(editor, this);
+        // Must be notified first to measure the whole processing of a change
+        addTextChangedListener(editLatencyWatcher);
         addTextChangedListener(combinedWatcher);
+        addTextChangedListener(textChangeWatcher);
+        addTextChangedListener(undoRedoWatcher);
+
+        final var incrementalHighlightTextWatcher = combinedWatcher.get(IncrementalHighlightTextWatcher.class);
+        if (incrementalHighlightTextWatcher != null) {
+            incrementalHighlightTextWatcher.setOnHighlightAppliedListener(() -> editLatencyWatcher.complete(EditLatencyListener.Stage.HIGHLIGHT, length()));
+            // Pending renderings of detached editors are cancelled, so they do not occupy the shared pre-render executor
+            lifecycleRegistry.addObserver(incrementalHighlightTextWatcher);
+        }
 
         final var actionModeCallback = new ContextBasedFormattingCallback();
         setCustomSelectionActionModeCallback(actionModeCallback);
@@ -140,11 +180,50 @@ public class MarkwonMarkdownEditor extends AppCompatEditText implements Markdown
     @Override
     public void onViewAttachedToWindow(@NonNull View view) {
         lifecycleRegistry.handleLifecycleEvent(Lifecycle.Event.ON_RESUME);
+        final var viewTreeObserver = getViewTreeObserver();
+        viewTreeObserver.addOnScrollChangedListener(onScrollChangedListener);
+        viewTreeObserver.addOnGlobalLayoutListener(onGlobalLayoutListener);
     }
 
     @Override
     public void onViewDetachedFromWindow(@NonNull View view) {
+        flushMarkdownStringUpdate();
         lifecycleRegistry.handleLifecycleEvent(Lifecycle.Event.ON_PAUSE);
+        final var viewTreeObserver = getViewTreeObserver();
+        viewTreeObserver.removeOnScrollChangedListener(onScrollChangedListener);
+        viewTreeObserver.removeOnGlobalLayoutListener(onGlobalLayoutListener);
+    }
+
+    /**
+     * Notes exceeding {@param threshold} characters are only highlighted around the currently visible lines.
+     * Defaults to {@link IncrementalHighlightTextWatcher#DEFAULT_VIEWPORT_HIGHLIGHTING_THRESHOLD}, pass {@link Integer#MAX_VALUE} to always highlight the whole note.
+     */
+    public void setViewportHighlightingThreshold(int threshold) {
+        final var incrementalHighlightTextWatcher = combinedWatcher.get(IncrementalHighlightTextWatcher.class);
+        if (incrementalHighlightTextWatcher == null) {
+            Log.w(TAG, IncrementalHighlightTextWatcher.class.getSimpleName() + " is not a registered " + TextWatcher.class.getSimpleName());
+        } else {
+            incrementalHighlightTextWatcher.setViewportHighlightingThreshold(threshold);
+        }
+    }
+
+    /**
+     * {@param listener} gets called with the progress between <code>0</code> and <code>1</code> while large changes like pastes are highlighted in the background.
+     */
+    public void setHighlightProgressListener(@Nullable Consumer<Float> listener) {
+        final var incrementalHighlightTextWatcher = combinedWatcher.get(IncrementalHighlightTextWatcher.class);
+        if (incrementalHighlightTextWatcher == null) {
+            Log.w(TAG, IncrementalHighlightTextWatcher.class.getSimpleName() + " is not a registered " + TextWatcher.class.getSimpleName());
+        } else {
+            incrementalHighlightTextWatcher.setProgressListener(listener);
+        }
+    }
+
+    private void onViewportChanged() {
+        final var incrementalHighlightTextWatcher = combinedWatcher.get(IncrementalHighlightTextWatcher.class);
+        if (incrementalHighlightTextWatcher != null) {
+            incrementalHighlightTextWatcher.onViewportChanged();
+        }
     }
 
     @NonNull
@@ -190,9 +269,28 @@ public class MarkwonMarkdownEditor extends AppCompatEditText implements Markdown
         }
     }
 
+    /**
+     * The {@param listener} gets called synchronously while the content is being changed, so it must not modify the content itself.
+     */
+    @Override
+    public void setSearchCurrentChangedListener(@Nullable Consumer<Integer> listener) {
+        final var searchHighlightTextWatcher = combinedWatcher.get(SearchHighlightTextWatcher.class);
+        if (searchHighlightTextWatcher == null) {
+            Log.w(TAG, SearchHighlightTextWatcher.class.getSimpleName() + " is not a registered " + TextWatcher.class.getSimpleName());
+        } else {
+            searchHighlightTextWatcher.setCurrentChangedListener(listener);
+        }
+    }
+
     @Override
     public void setMarkdownString(CharSequence text) {
-        setText(text);
+        undoRedoWatcher.setRecording(false);
+        try {
+            setText(text);
+        } finally {
+            undoRedoWatcher.setRecording(true);
+            undoRedoWatcher.clear();
+        }
         setMarkdownStringModel(text);
         notifyControllers();
     }
@@ -202,6 +300,49 @@ public class MarkwonMarkdownEditor extends AppCompatEditText implements Markdown
         throw new UnsupportedOperationException("This is not available in " + MarkwonMarkdownEditor.class.getSimpleName() + " because the text is getting rendered all the time.");
     }
 
+    /**
+     * Applies the {@param changes} one after another to the current content without replacing it, so the highlighting of untouched regions, the selection and the scroll position are kept.
+     * The {@link TextChange#offset() offset} of each change refers to the content after applying the previous changes, their {@link TextChange#revision() revision} is ignored.
+     * Lists are not continued automatically and only the changed regions are highlighted again.
+     */
+    @MainThread
+    @Override
+    public void applyTextChanges(@NonNull List<TextChange> changes) {
+        final var text = getText();
+        if (text == null || changes.isEmpty()) {
+            return;
+        }
+
+        final boolean collapsed = getSelectionStart() == getSelectionEnd();
+        int selectionStart = getSelectionStart();
+        int selectionEnd = getSelectionEnd();
+        for (final var change : changes) {
+            selectionStart = change.mapPosition(selectionStart, false);
+            selectionEnd = collapsed ? selectionStart : change.mapPosition(selectionEnd, true);
+        }
+
+        // Offsets of the recorded steps would not match the content anymore
+        undoRedoWatcher.setRecording(false);
+        beginBatchEdit();
+        try {
+            combinedWatcher.runWithoutInterceptors(text, () -> {
+                for (final var change : changes) {
+                    text.replace(change.offset(), change.offset() + change.removedLength(), change.insertedText());
+                }
+                return null;
+            });
+        } finally {
+            endBatchEdit();
+            undoRedoWatcher.setRecording(true);
+            undoRedoWatcher.clear();
+        }
+
+        if (selectionStart >= 0) {
+            setSelection(Math.min(selectionStart, text.length()), Math.min(selectionEnd, text.length()));
+        }
+        notifyControllers();
+    }
+
     /**
      * Updates the current model which matches the rendered state of the editor *without* triggering
      * anything of the native {@link EditText}
@@ -210,12 +351,90 @@ public class MarkwonMarkdownEditor extends AppCompatEditText implements Markdown
      */
     @Deprecated
     public void setMarkdownStringModel(CharSequence text) {
+        cancelMarkdownStringUpdate();
         unrenderedText$.setValue(text == null ? "" : text.toString());
         if (listener != null) {
             listener.accept(text);
         }
     }
 
+    /**
+     * Marks the model as changed after an edit. Multiple changes are coalesced to one update per frame or per {@link #setMarkdownStringDebounceMillis(long) debounce window}.
+     * The content only gets copied to a {@link String} if someone observes {@link #getMarkdownString()} or a {@link #setMarkdownStringChangedListener(Consumer) listener} is set.
+     */
+    @MainThread
+    @RestrictTo(RestrictTo.Scope.LIBRARY)
+    public void invalidateMarkdownStringModel() {
+        if (markdownStringDebounceMillis > 0) {
+            publishMarkdownStringHandler.removeCallbacks(publishMarkdownStringRunnable);
+            publishMarkdownStringHandler.postDelayed(publishMarkdownStringRunnable, markdownStringDebounceMillis);
+        } else if (!markdownStringUpdatePending) {
+            Choreographer.getInstance().postFrameCallback(publishMarkdownStringFrameCallback);
+        }
+        markdownStringUpdatePending = true;
+    }
+
+    /**
+     * By default {@link #getMarkdownString()} and the {@link #setMarkdownStringChangedListener(Consumer) listener} are updated at most once per frame while typing.
+     * A positive {@param debounceMillis} delays the update until no changes happened for the given time instead.
+     */
+    public void setMarkdownStringDebounceMillis(long debounceMillis) {
+        if (debounceMillis < 0) {
+            throw new IllegalArgumentException("Debounce must not be negative, but was " + debounceMillis);
+        }
+        this.markdownStringDebounceMillis = debounceMillis;
+    }
+
+    private void cancelMarkdownStringUpdate() {
+        if (markdownStringUpdatePending) {
+            Choreographer.getInstance().removeFrameCallback(publishMarkdownStringFrameCallback);
+            publishMarkdownStringHandler.removeCallbacks(publishMarkdownStringRunnable);
+            markdownStringUpdatePending = false;
+        }
+    }
+
+    /**
+     * Publishes a pending update immediately instead of waiting for the next frame or the end of the debounce window.
+     */
+    @MainThread
+    private void flushMarkdownStringUpdate() {
+        if (markdownStringUpdatePending) {
+            cancelMarkdownStringUpdate();
+            publishMarkdownString();
+        }
+    }
+
+    private void publishMarkdownString() {
+        markdownStringUpdatePending = false;
+        if (listener == null && !unrenderedText$.hasActiveObservers()) {
+            unrenderedText$.stale = true;
+            editLatencyWatcher.takeStart(EditLatencyListener.Stage.MODEL);
+            return;
+        }
+
+        final var text = getContentAsString();
+        unrenderedText$.setValue(text);
+        if (listener != null) {
+            listener.accept(text);
+        }
+        editLatencyWatcher.complete(EditLatencyListener.Stage.MODEL, text.length());
+    }
+
+    @NonNull
+    /**
+     * The {@link EditorStateNotifier} reads the content on its worker, so it must not get the live {@link Editable} which might be changed meanwhile.
+     * As the {@link SnapshotEditable} caches its {@link String}, this does not copy the content again.
+     */
+    @NonNull
+    private Spannable getContentSnapshot() {
+        return new SpannableString(getContentAsString());
+    }
+
+    private String getContentAsString() {
+        final var text = getText();
+        return text == null ? "" : text.toString();
+    }
+
     @Override
     public LiveData<CharSequence> getMarkdownString() {
         return unrenderedText$;
@@ -226,6 +445,19 @@ public class MarkwonMarkdownEditor extends AppCompatEditText implements Markdown
         this.listener = listener;
     }
 
+    /**
+     * The {@param listener} gets called synchronously while the content is being changed, so it must not modify the content itself.
+     */
+    @Override
+    public void setTextChangeListener(@Nullable Consumer<TextChange> listener) {
+        this.textChangeWatcher.setListener(listener);
+    }
+
+    @Override
+    public void setEditLatencyListener(@Nullable EditLatencyListener listener) {
+        editLatencyWatcher.setListener(listener);
+    }
+
     /**
      * ⚠ This is a <strong>BETA</strong> feature. Please be careful. API changes can happen anytime and won't be announced!
      */
@@ -250,7 +482,7 @@ public class MarkwonMarkdownEditor extends AppCompatEditText implements Markdown
                 controller,
                 isEnabled(),
                 this.color,
-                MarkdownUtil.getContentAsSpannable(this),
+                getContentSnapshot(),
                 getSelectionStart(),
                 getSelectionEnd());
     }
@@ -288,13 +520,21 @@ public class MarkwonMarkdownEditor extends AppCompatEditText implements Markdown
             return; // Called during constructor
         }
 
-        editorStateNotifier.notify(
+        final long editStart = editLatencyWatcher.takeStart(EditLatencyListener.Stage.EDITOR_STATE);
+        final var notified = editorStateNotifier.notify(
                 getContext(),
                 isEnabled(),
                 this.color,
-                MarkdownUtil.getContentAsSpannable(this),
+                getContentSnapshot(),
                 getSelectionStart(),
                 getSelectionEnd());
+
+        if (editStart >= 0) {
+            notified.thenRun(() -> {
+                final long editEnd = System.nanoTime();
+                post(() -> editLatencyWatcher.report(EditLatencyListener.Stage.EDITOR_STATE, editStart, editEnd, length()));
+            });
+        }
     }
 
     /**
@@ -303,21 +543,124 @@ public class MarkwonMarkdownEditor extends AppCompatEditText implements Markdown
     public void executeCommand(@NonNull Command command) throws UnsupportedOperationException {
         Log.w(TAG, "⚠ This is a BETA feature. Please be careful. API changes can happen anytime and won't be announced!");
 
-        final var spannable = new SpannableStringBuilder(MarkdownUtil.getContentAsSpannable(this));
+        final var text = getText();
         final var start = getSelectionStart();
         final var end = getSelectionEnd();
 
-        if (!command.isEnabled(getContext(), spannable, start, end)) {
+        if (text == null || !command.isEnabled(getContext(), text, start, end)) {
             throw new UnsupportedOperationException();
         }
 
-        final var result = command.applyCommand(getContext(), spannable, start, end);
+        // The command is applied to the live content, so only its actual changes need to be highlighted again
+        final Optional<CommandApplier.CommandApplierResult> result;
+        beginBatchEdit();
+        undoRedoWatcher.beginGroup();
+        try {
+            result = combinedWatcher.runWithoutInterceptors(text, () -> command.applyCommand(getContext(), text, start, end));
+        } finally {
+            undoRedoWatcher.endGroup();
+            endBatchEdit();
+        }
 
         if (result.isEmpty()) {
             throw new UnsupportedOperationException();
         }
 
-        setMarkdownString(result.get().content());
-        setSelection(result.get().selection());
+        setSelection(Math.min(result.get().selection(), text.length()));
+        notifyControllers();
+    }
+
+    /**
+     * Reverts the latest change. Characters typed in a row and each {@link #executeCommand(Command) command} are reverted as one step.
+     *
+     * @return whether there was a change to undo
+     */
+    public boolean undo() {
+        return applyHistory(undoRedoWatcher::undo);
+    }
+
+    /**
+     * @return whether there was an undone change to redo
+     */
+    public boolean redo() {
+        return applyHistory(undoRedoWatcher::redo);
+    }
+
+    public boolean canUndo() {
+        return undoRedoWatcher.canUndo();
+    }
+
+    public boolean canRedo() {
+        return undoRedoWatcher.canRedo();
+    }
+
+    /**
+     * Limits the memory used for {@link #undo()} and {@link #redo()}. Defaults to {@link UndoRedoTextWatcher#DEFAULT_BUDGET_BYTES}.
+     */
+    public void setUndoHistoryBudget(long bytes) {
+        undoRedoWatcher.setBudget(bytes);
+    }
+
+    private boolean applyHistory(@NonNull Function<Editable, Integer> history) {
+        final var text = getText();
+        if (text == null) {
+            return false;
+        }
+
+        final int cursor;
+        beginBatchEdit();
+        try {
+            cursor = combinedWatcher.runWithoutInterceptors(text, () -> history.apply(text));
+        } finally {
+            endBatchEdit();
+        }
+
+        if (cursor < 0) {
+            return false;
+        }
+
+        setSelection(Math.min(cursor, text.length()));
+        notifyControllers();
+        return true;
+    }
+
+    /**
+     * Does not copy the content of the editor as long as nobody is interested in it.
+     */
+    private final class MarkdownStringLiveData extends MutableLiveData<CharSequence> {
+
+        /**
+         * The content changed, but has not been copied to {@link #getValue()} because there were no active observers.
+         */
+        private boolean stale = false;
+
+        @Override
+        public void setValue(CharSequence value) {
+            stale = false;
+            super.setValue(value);
+        }
+
+        /**
+         * Reflects all edits when called on the main thread, even if their update has not been published yet.
+         */
+        @Nullable
+        @Override
+        public CharSequence getValue() {
+            if (Looper.myLooper() == Looper.getMainLooper()) {
+                flushMarkdownStringUpdate();
+                if (stale) {
+                    setValue(getContentAsString());
+                }
+            }
+            return super.getValue();
+        }
+
+        @Override
+        protected void onActive() {
+            super.onActive();
+            if (stale) {
+                setValue(getContentAsString());
+            }
+        }
     }
 }
@@ -15,6 +15,8 @@ import android.util.TypedValue;
 import androidx.annotation.ColorInt;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
+import androidx.annotation.RestrictTo;
+import androidx.annotation.WorkerThread;
 import androidx.appcompat.widget.AppCompatTextView;
 import androidx.lifecycle.LiveData;
 import androidx.lifecycle.MutableLiveData;
@@ -25,8 +27,14 @@ import com.nextcloud.android.sso.exceptions.NoCurrentAccountSelectedException;
 import com.nextcloud.android.sso.helper.SingleAccountHelper;
 import com.nextcloud.android.sso.model.SingleSignOnAccount;
 
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
 import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.function.Consumer;
@@ -47,6 +55,7 @@ import io.noties.markwon.simple.ext.SimpleExtPlugin;
 import io.noties.markwon.syntax.Prism4jThemeDarkula;
 import io.noties.markwon.syntax.Prism4jThemeDefault;
 import io.noties.markwon.syntax.SyntaxHighlightPlugin;
+import io.noties.prism4j.GrammarLocator;
 import io.noties.prism4j.Prism4j;
 import io.noties.prism4j.annotations.PrismBundle;
 import it.niedermann.android.markdown.MarkdownEditor;
@@ -54,6 +63,7 @@ import it.niedermann.android.markdown.MarkdownUtil;
 import it.niedermann.android.markdown.R;
 import it.niedermann.android.markdown.markwon.plugins.CustomGlideStore;
 import it.niedermann.android.markdown.markwon.plugins.LinkClickInterceptorPlugin;
+import it.niedermann.android.markdown.markwon.plugins.OutlinePlugin;
 import it.niedermann.android.markdown.markwon.plugins.RelativeImageUrlPlugin;
 import it.niedermann.android.markdown.markwon.plugins.SearchHighlightPlugin;
 import it.niedermann.android.markdown.markwon.plugins.ThemePlugin;
@@ -64,12 +74,17 @@ import it.niedermann.android.markdown.markwon.plugins.mentions.MentionsPlugin;
 public class MarkwonMarkdownViewer extends AppCompatTextView implements MarkdownEditor {
 
     private static final String TAG = MarkwonMarkdownViewer.class.getSimpleName();
-    private static final Prism4j prism4j = new Prism4j(new MarkwonGrammarLocator());
+    private static final GrammarLocator grammarLocator = new SynchronizedGrammarLocator(new MarkwonGrammarLocator());
+    private static final Prism4j prism4j = new Prism4j(grammarLocator);
     private final Markwon markwon;
     @Nullable
     private Consumer<CharSequence> listener = null;
     private final MutableLiveData<CharSequence> unrenderedText$ = new MutableLiveData<>();
+    private final MutableLiveData<List<OutlineEntry>> outline$ = new MutableLiveData<>(Collections.emptyList());
     private final ExecutorService renderService;
+    private final TimeSlicedTextSetter textSetter;
+    @Nullable
+    private SingleSignOnAccount ssoAccount = null;
 
     public MarkwonMarkdownViewer(@NonNull Context context) {
         this(context, null);
@@ -97,6 +112,7 @@ public class MarkwonMarkdownViewer extends AppCompatTextView implements Markdown
         theme.resolveAttribute(androidx.appcompat.R.attr.colorPrimary, typedValue, true);
 
         this.markwon = createMarkwonBuilder(context, enableMentions, typedValue.data).build();
+        this.textSetter = new TimeSlicedTextSetter(this.markwon);
         this.renderService = new ThreadPoolExecutor(1, 1, 0, MILLISECONDS,
                 new ArrayBlockingQueue<>(2),
                 new ThreadPoolExecutor.DiscardOldestPolicy());
@@ -105,6 +121,26 @@ public class MarkwonMarkdownViewer extends AppCompatTextView implements Markdown
     private Markwon.Builder createMarkwonBuilder(@NonNull Context context,
                                                  boolean enableMentions,
                                                  @ColorInt int color) {
+        return createMarkwonBuilder(context, enableMentions, color, new ToggleableTaskListPlugin((toggledCheckboxPosition, newCheckedState) -> {
+            final var oldUnrenderedText = unrenderedText$.getValue();
+            if (oldUnrenderedText == null) {
+                throw new IllegalStateException("Checkbox #" + toggledCheckboxPosition + ", but unrenderedText$ value is null.");
+            }
+
+            unrenderedText$.setValue(MarkdownUtil.setCheckboxStatus(oldUnrenderedText.toString(), toggledCheckboxPosition, newCheckedState));
+
+            // https://stackoverflow.com/q/14785848
+            if (isTextSelectable()) {
+                rerender();
+            }
+        }), OutlinePlugin.create(outline$::setValue));
+    }
+
+    private static Markwon.Builder createMarkwonBuilder(@NonNull Context context,
+                                                        boolean enableMentions,
+                                                        @ColorInt int color,
+                                                        @NonNull ToggleableTaskListPlugin toggleableTaskListPlugin,
+                                                        @NonNull OutlinePlugin outlinePlugin) {
         final var prism4jTheme = PlatformThemeUtil.isDarkMode(context)
                 ? Prism4jThemeDarkula.create()
                 : Prism4jThemeDefault.create();
@@ -124,27 +160,37 @@ public class MarkwonMarkdownViewer extends AppCompatTextView implements Markdown
                 .usePlugin(SoftBreakAddsNewLinePlugin.create())
                 .usePlugin(SyntaxHighlightPlugin.create(prism4j, prism4jTheme))
                 .usePlugin(RelativeImageUrlPlugin.create())
-                .usePlugin(new ToggleableTaskListPlugin((toggledCheckboxPosition, newCheckedState) -> {
-                    final var oldUnrenderedText = unrenderedText$.getValue();
-                    if (oldUnrenderedText == null) {
-                        throw new IllegalStateException("Checkbox #" + toggledCheckboxPosition + ", but unrenderedText$ value is null.");
-                    }
-
-                    unrenderedText$.setValue(MarkdownUtil.setCheckboxStatus(oldUnrenderedText.toString(), toggledCheckboxPosition, newCheckedState));
-
-                    // https://stackoverflow.com/q/14785848
-                    if (isTextSelectable()) {
-                        rerender();
-                    }
-                }));
+                .usePlugin(toggleableTaskListPlugin)
+                .usePlugin(outlinePlugin);
 
         if (enableMentions) {
-            return builder.usePlugin(MentionsPlugin.create(getContext(), color));
+            return builder.usePlugin(MentionsPlugin.create(context, color));
         }
 
         return builder;
     }
 
+    /**
+     * Loads all syntax highlighting grammars and renders the {@param sample} once with the same {@link MarkwonPlugin}s a viewer uses.
+     *
+     * @see MarkdownUtil#warmUp(Context)
+     */
+    @WorkerThread
+    @RestrictTo(RestrictTo.Scope.LIBRARY)
+    public static void warmUp(@NonNull Context context, @ColorInt int color, @NonNull String sample) {
+        for (final var language : grammarLocator.languages()) {
+            prism4j.grammar(language);
+        }
+
+        createMarkwonBuilder(context, true, color, new ToggleableTaskListPlugin((position, checked) -> {
+            // Nothing to toggle while warming up
+        }), OutlinePlugin.create(outline -> {
+            // Nobody is interested in the outline while warming up
+        }))
+                .build()
+                .toMarkdown(sample);
+    }
+
     /**
      * @deprecated use {@link #createMarkwonBuilder(Context, boolean, int)} and {@link #setCurrentSingleSignOnAccount(SingleSignOnAccount, int)} to fetch and render mentions automatically.
      */
@@ -175,6 +221,14 @@ public class MarkwonMarkdownViewer extends AppCompatTextView implements Markdown
         }
     }
 
+    /**
+     * Applying the rendered markdown to this view is split into slices, so that the UI thread is not blocked longer than {@param frameBudgetMillis} per frame.
+     * Defaults to {@link TimeSlicedTextSetter#DEFAULT_FRAME_BUDGET_MILLIS}.
+     */
+    public void setFrameBudgetMillis(long frameBudgetMillis) {
+        this.textSetter.setFrameBudgetMillis(frameBudgetMillis);
+    }
+
     @Override
     public void setMarkdownString(CharSequence text) {
         setMarkdownString(text, null);
@@ -188,15 +242,15 @@ public class MarkwonMarkdownViewer extends AppCompatTextView implements Markdown
             listener.accept(text);
         }
         if (TextUtils.isEmpty(text)) {
+            this.textSetter.cancel();
             setText(text);
+            this.outline$.setValue(Collections.emptyList());
         } else {
             if (!text.equals(previousText)) {
-                this.renderService.execute(() -> post(() -> {
-                    this.markwon.setMarkdown(this, text.toString());
-                    if (afterRender != null) {
-                        afterRender.run();
-                    }
-                }));
+                this.renderService.execute(() -> {
+                    final var markdown = this.markwon.toMarkdown(text.toString());
+                    post(() -> this.textSetter.setParsedMarkdown(this, markdown, afterRender));
+                });
             }
         }
     }
@@ -216,6 +270,10 @@ public class MarkwonMarkdownViewer extends AppCompatTextView implements Markdown
         }
     }
 
+    /**
+     * Changing only the {@param color} recolors the already rendered spans in place.
+     * The markdown gets only rendered again in case the {@param ssoAccount} changed, because mentions need to be resolved for the new account.
+     */
     @Override
     public void setCurrentSingleSignOnAccount(@Nullable SingleSignOnAccount ssoAccount, @ColorInt int color) {
         final var searchHighlightPlugin = this.markwon.getPlugin(SearchHighlightPlugin.class);
@@ -223,6 +281,7 @@ public class MarkwonMarkdownViewer extends AppCompatTextView implements Markdown
             Log.w(TAG, SearchHighlightPlugin.class.getSimpleName() + " is not a registered " + MarkwonPlugin.class.getSimpleName());
         } else {
             searchHighlightPlugin.setColor(color);
+            searchHighlightPlugin.recolor(this);
         }
 
         final var mentionsPlugin = this.markwon.getPlugin(MentionsPlugin.class);
@@ -230,10 +289,19 @@ public class MarkwonMarkdownViewer extends AppCompatTextView implements Markdown
             Log.w(TAG, MentionsPlugin.class.getSimpleName() + " is not a registered " + TextWatcher.class.getSimpleName());
         } else {
             mentionsPlugin.setColor(color);
-            mentionsPlugin.setCurrentSingleSignOnAccount(ssoAccount);
+
+            if (isSameAccount(this.ssoAccount, ssoAccount)) {
+                mentionsPlugin.recolor(this);
+            } else {
+                this.ssoAccount = ssoAccount;
+                mentionsPlugin.setCurrentSingleSignOnAccount(ssoAccount);
+                rerender();
+            }
         }
+    }
 
-        rerender();
+    private static boolean isSameAccount(@Nullable SingleSignOnAccount a, @Nullable SingleSignOnAccount b) {
+        return Objects.equals(a == null ? null : a.name, b == null ? null : b.name);
     }
 
     @Override
@@ -262,15 +330,69 @@ public class MarkwonMarkdownViewer extends AppCompatTextView implements Markdown
         return distinctUntilChanged(this.unrenderedText$);
     }
 
+    /**
+     * The outline is collected while rendering and updated each time the rendered markdown has been set.
+     * Use {@link OutlineEntry#renderedOffset()} to jump to a heading without parsing the markdown again.
+     */
+    @Override
+    public LiveData<List<OutlineEntry>> getOutline() {
+        return this.outline$;
+    }
+
     @Override
     public void setMarkdownStringChangedListener(@Nullable Consumer<CharSequence> listener) {
         this.listener = listener;
     }
 
     private void rerender() {
-        this.renderService.execute(() -> post(() -> {
+        this.renderService.execute(() -> {
             final var currentValue = unrenderedText$.getValue();
-            this.markwon.setMarkdown(this, currentValue == null ? "" : currentValue.toString());
-        }));
+            final var markdown = this.markwon.toMarkdown(currentValue == null ? "" : currentValue.toString());
+            post(() -> this.textSetter.setParsedMarkdown(this, markdown, null));
+        });
+    }
+
+    /**
+     * The generated {@link GrammarLocator} caches loaded grammars without synchronization.
+     * Since {@link #warmUp(Context, int, String)} loads them on a background thread, loading must be synchronized.
+     * Already loaded grammars are served from {@link #grammars} without locking.
+     * <p>
+     * {@link ConcurrentHashMap#computeIfAbsent(Object, java.util.function.Function)} can not be used for loading, because grammars extending other grammars load them recursively.
+     */
+    private static final class SynchronizedGrammarLocator implements GrammarLocator {
+
+        @NonNull
+        private final GrammarLocator grammarLocator;
+        private final Map<String, Optional<Prism4j.Grammar>> grammars = new ConcurrentHashMap<>();
+
+        private SynchronizedGrammarLocator(@NonNull GrammarLocator grammarLocator) {
+            this.grammarLocator = grammarLocator;
+        }
+
+        @Nullable
+        @Override
+        public Prism4j.Grammar grammar(@NonNull Prism4j prism4j, @NonNull String language) {
+            final var loaded = grammars.get(language);
+            if (loaded != null) {
+                return loaded.orElse(null);
+            }
+
+            synchronized (this) {
+                final var loadedMeanwhile = grammars.get(language);
+                if (loadedMeanwhile != null) {
+                    return loadedMeanwhile.orElse(null);
+                }
+
+                final var grammar = Optional.ofNullable(grammarLocator.grammar(prism4j, language));
+                grammars.put(language, grammar);
+                return grammar.orElse(null);
+            }
+        }
+
+        @NonNull
+        @Override
+        public Set<String> languages() {
+            return grammarLocator.languages();
+        }
     }
 }
@@ -0,0 +1,79 @@
+package it.niedermann.android.markdown.markwon;
+
+import android.text.Editable;
+import android.text.NoCopySpan;
+import android.text.SpannableStringBuilder;
+import android.text.Spanned;
+import android.text.TextWatcher;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * {@link SpannableStringBuilder} which caches the result of {@link #toString()} until the text changes.
+ * Text watchers, spans and the rendering convert the content to a {@link String} several times per keystroke,
+ * which becomes expensive for documents of multiple megabytes. With this, the content is copied at most once per change.
+ */
+public class SnapshotEditable extends SpannableStringBuilder {
+
+    public static final Editable.Factory FACTORY = new Editable.Factory() {
+        @Override
+        public Editable newEditable(CharSequence source) {
+            return new SnapshotEditable(source);
+        }
+    };
+
+    @Nullable
+    private String snapshot;
+
+    public SnapshotEditable(@NonNull CharSequence text) {
+        super(text);
+        attachInvalidator();
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        if (snapshot == null) {
+            snapshot = super.toString();
+        }
+        return snapshot;
+    }
+
+    @Override
+    public SpannableStringBuilder replace(int start, int end, CharSequence tb, int tbstart, int tbend) {
+        snapshot = null;
+        return super.replace(start, end, tb, tbstart, tbend);
+    }
+
+    @Override
+    public void clearSpans() {
+        super.clearSpans();
+        attachInvalidator();
+    }
+
+    /**
+     * Watchers might read the content while it is being replaced, so the snapshot needs to be invalidated before any other {@link TextWatcher} gets notified about the change.
+     */
+    private void attachInvalidator() {
+        setSpan(new SnapshotInvalidator(), 0, length(), Spanned.SPAN_INCLUSIVE_INCLUSIVE | Spanned.SPAN_PRIORITY);
+    }
+
+    private class SnapshotInvalidator implements TextWatcher, NoCopySpan {
+
+        @Override
+        public void beforeTextChanged(CharSequence s, int start, int count, int after) {
+            // Still the old content
+        }
+
+        @Override
+        public void onTextChanged(CharSequence s, int start, int before, int count) {
+            snapshot = null;
+        }
+
+        @Override
+        public void afterTextChanged(Editable s) {
+            // Nothing to do
+        }
+    }
+}
@@ -0,0 +1,210 @@
+package it.niedermann.android.markdown.markwon;
+
+import android.text.Editable;
+import android.text.NoCopySpan;
+import android.text.Spannable;
+import android.text.Spanned;
+import android.text.TextUtils;
+import android.text.style.StrikethroughSpan;
+import android.text.style.URLSpan;
+import android.widget.TextView;
+
+import androidx.annotation.MainThread;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+
+import io.noties.markwon.core.spans.BlockQuoteSpan;
+import io.noties.markwon.core.spans.CodeBlockSpan;
+import io.noties.markwon.core.spans.CodeSpan;
+import io.noties.markwon.core.spans.EmphasisSpan;
+import io.noties.markwon.core.spans.HeadingSpan;
+import io.noties.markwon.core.spans.StrongEmphasisSpan;
+import io.noties.markwon.core.spans.ThematicBreakSpan;
+
+/**
+ * Updates an existing {@link Editable} or {@link Spannable} to match a newly rendered {@link Spanned} with as few changes as possible.
+ * Compared to a plain {@link TextView#setText(CharSequence)} this keeps the layout of unchanged paragraphs, the selection and the scroll position.
+ */
+public class SpannableDiffUtil {
+
+    /**
+     * Spans which do not hold any state besides the theme, so two instances of the same type at the same range are interchangeable.
+     */
+    private static final Set<Class<?>> STATELESS_SPANS = Set.of(
+            StrongEmphasisSpan.class,
+            EmphasisSpan.class,
+            StrikethroughSpan.class,
+            CodeSpan.class,
+            CodeBlockSpan.class,
+            BlockQuoteSpan.class,
+            ThematicBreakSpan.class
+    );
+
+    private SpannableDiffUtil() {
+        // Util class
+    }
+
+    /**
+     * Sets the {@param text} to the {@param textView}. In case the current content is an {@link Editable}, it will be updated in place using {@link #diff(Editable, Spanned)}.
+     * A {@link Spannable} which already contains the same characters gets its spans updated in place using {@link #diffSpans(Spannable, Spanned)}.
+     */
+    @MainThread
+    public static void setText(@NonNull TextView textView, @NonNull Spanned text) {
+        final var currentText = textView.getText();
+        if (currentText instanceof Editable editable) {
+            for (final var change : diff(editable, text)) {
+                change.applyTo(editable);
+            }
+        } else if (currentText instanceof Spannable spannable && TextUtils.equals(spannable, text)) {
+            for (final var change : diffSpans(spannable, text)) {
+                change.applyTo(spannable);
+            }
+        } else {
+            textView.setText(text);
+        }
+    }
+
+    /**
+     * Replaces the characters of {@param target} which differ from {@param source} in place.
+     * The spans are <strong>not</strong> modified, instead the necessary {@link SpanChange}s are returned, so the caller can decide when to apply them.
+     * Spans which are equivalent in {@param target} and {@param source} are kept and do not cause a {@link SpanChange}.
+     * {@link NoCopySpan}s like the selection or watchers are ignored.
+     *
+     * @return removals of outdated spans followed by additions of new spans
+     */
+    @NonNull
+    public static List<SpanChange> diff(@NonNull Editable target, @NonNull Spanned source) {
+        replaceChangedCharacters(target, source);
+        return diffSpans(target, source);
+    }
+
+    /**
+     * Like {@link #diff(Editable, Spanned)} for a {@param target} which already contains the same characters as {@param source}, so it does not need to be {@link Editable}.
+     *
+     * @return removals of outdated spans followed by additions of new spans
+     */
+    @NonNull
+    public static List<SpanChange> diffSpans(@NonNull Spannable target, @NonNull Spanned source) {
+        if (target.length() != source.length()) {
+            throw new IllegalArgumentException("Expected target to contain the same characters as source, but its length was " + target.length() + " instead of " + source.length());
+        }
+
+        final var outdated = new HashMap<SpanKey, List<Object>>();
+        for (final var span : target.getSpans(0, target.length(), Object.class)) {
+            if (!(span instanceof NoCopySpan)) {
+                outdated.computeIfAbsent(SpanKey.of(target, span), key -> new LinkedList<>()).add(span);
+            }
+        }
+
+        final var additions = new ArrayList<SpanChange>();
+        for (final var span : source.getSpans(0, source.length(), Object.class)) {
+            if (span instanceof NoCopySpan) {
+                continue;
+            }
+
+            final var key = SpanKey.of(source, span);
+            if (!removeEquivalent(outdated.get(key), span)) {
+                additions.add(new SpanChange(span, key.start(), key.end(), key.flags(), true));
+            }
+        }
+
+        final var changes = new ArrayList<SpanChange>();
+        outdated.forEach((key, spans) -> {
+            for (final var span : spans) {
+                changes.add(new SpanChange(span, key.start(), key.end(), key.flags(), false));
+            }
+        });
+        changes.addAll(additions);
+        return changes;
+    }
+
+    private static void replaceChangedCharacters(@NonNull Editable target, @NonNull CharSequence source) {
+        final int targetLength = target.length();
+        final int sourceLength = source.length();
+        final int maxCommonLength = Math.min(targetLength, sourceLength);
+
+        int prefix = 0;
+        while (prefix < maxCommonLength && target.charAt(prefix) == source.charAt(prefix)) {
+            prefix++;
+        }
+
+        int suffix = 0;
+        while (suffix < maxCommonLength - prefix && target.charAt(targetLength - 1 - suffix) == source.charAt(sourceLength - 1 - suffix)) {
+            suffix++;
+        }
+
+        if (prefix == targetLength && prefix == sourceLength) {
+            return;
+        }
+
+        // Plain text only, spans are handled separately
+        target.replace(prefix, targetLength - suffix, TextUtils.substring(source, prefix, sourceLength - suffix));
+    }
+
+    /**
+     * @return whether an equivalent span for {@param span} has been found in and removed from {@param candidates}
+     */
+    private static boolean removeEquivalent(@Nullable List<Object> candidates, @NonNull Object span) {
+        if (candidates == null) {
+            return false;
+        }
+
+        final var iterator = candidates.iterator();
+        while (iterator.hasNext()) {
+            if (isEquivalent(iterator.next(), span)) {
+                iterator.remove();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isEquivalent(@NonNull Object a, @NonNull Object b) {
+        if (a == b || a.equals(b)) {
+            return true;
+        }
+
+        if (a.getClass() != b.getClass()) {
+            return false;
+        }
+
+        if (a instanceof HeadingSpan heading) {
+            return heading.getLevel() == ((HeadingSpan) b).getLevel();
+        }
+
+        if (a instanceof URLSpan url) {
+            return Objects.equals(url.getURL(), ((URLSpan) b).getURL());
+        }
+
+        return STATELESS_SPANS.contains(a.getClass());
+    }
+
+    private record SpanKey(@NonNull Class<?> type, int start, int end, int flags) {
+
+        @NonNull
+        static SpanKey of(@NonNull Spanned spanned, @NonNull Object span) {
+            return new SpanKey(span.getClass(), spanned.getSpanStart(span), spanned.getSpanEnd(span), spanned.getSpanFlags(span));
+        }
+    }
+
+    /**
+     * Either the addition or the removal of a {@link #span}.
+     */
+    public record SpanChange(@NonNull Object span, int start, int end, int flags, boolean addition) {
+
+        public void applyTo(@NonNull Spannable spannable) {
+            if (addition) {
+                spannable.setSpan(span, start, end, flags);
+            } else {
+                spannable.removeSpan(span);
+            }
+        }
+    }
+}
@@ -0,0 +1,227 @@
+package it.niedermann.android.markdown.markwon;
+
+import static java.util.Comparator.comparingInt;
+
+import android.text.Editable;
+import android.text.Spannable;
+import android.text.SpannableString;
+import android.text.Spanned;
+import android.text.TextUtils;
+import android.view.Choreographer;
+import android.widget.TextView;
+
+import androidx.annotation.MainThread;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+import io.noties.markwon.Markwon;
+import io.noties.markwon.MarkwonPlugin;
+import it.niedermann.android.markdown.MarkdownUtil;
+import it.niedermann.android.markdown.markwon.SpannableDiffUtil.SpanChange;
+
+/**
+ * Replacement for {@link Markwon#setParsedMarkdown(TextView, Spanned)} which splits the work on the UI thread into slices, so that no single frame exceeds the frame budget.
+ * <ol>
+ *     <li>{@link MarkwonPlugin#beforeSetText(TextView, Spanned)} hooks and span changes which are currently visible are applied immediately</li>
+ *     <li>The remaining span changes are applied in slices using the {@link Choreographer}, the ones closest to the visible area first</li>
+ *     <li>{@link MarkwonPlugin#afterSetText(TextView)} hooks are executed one after another when all spans have been applied, deferred to the next frame when the budget is exhausted</li>
+ * </ol>
+ * New text is set as {@link TextView.BufferType#SPANNABLE}, since a viewer does not need the editing capabilities of an {@link Editable}.
+ * In case the {@link TextView} already holds the same characters, only the changed spans are applied using {@link SpannableDiffUtil}, which keeps the selection and the scroll position.
+ * Changed characters are only diffed in place if the {@link TextView} holds an {@link Editable}, otherwise the whole text gets replaced.
+ */
+public class TimeSlicedTextSetter {
+
+    public static final long DEFAULT_FRAME_BUDGET_MILLIS = 8;
+
+    /**
+     * Checking the time is not free, so it only happens every few spans.
+     */
+    private static final int SPANS_PER_TIME_CHECK = 16;
+
+    @NonNull
+    private final Markwon markwon;
+    @NonNull
+    private final LongSupplier nanoTime;
+    private long frameBudgetNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_FRAME_BUDGET_MILLIS);
+    @Nullable
+    private Slice pendingSlice;
+
+    public TimeSlicedTextSetter(@NonNull Markwon markwon) {
+        this(markwon, System::nanoTime);
+    }
+
+    /**
+     * @param nanoTime source of the current time used to check the frame budget
+     */
+    @VisibleForTesting
+    TimeSlicedTextSetter(@NonNull Markwon markwon, @NonNull LongSupplier nanoTime) {
+        this.markwon = markwon;
+        this.nanoTime = nanoTime;
+    }
+
+    public void setFrameBudgetMillis(long frameBudgetMillis) {
+        if (frameBudgetMillis <= 0) {
+            throw new IllegalArgumentException("Frame budget must be positive, but was " + frameBudgetMillis);
+        }
+        this.frameBudgetNanos = TimeUnit.MILLISECONDS.toNanos(frameBudgetMillis);
+    }
+
+    /**
+     * @param markdown   the result of {@link Markwon#toMarkdown(String)}, which can be created on a background thread
+     * @param onComplete will be called after all spans have been applied and all {@link MarkwonPlugin#afterSetText(TextView)} hooks have been executed
+     */
+    @MainThread
+    public void setParsedMarkdown(@NonNull TextView textView, @NonNull Spanned markdown, @Nullable Runnable onComplete) {
+        final long deadline = nanoTime.getAsLong() + frameBudgetNanos;
+        cancel();
+
+        for (final var plugin : markwon.getPlugins()) {
+            plugin.beforeSetText(textView, markdown);
+        }
+
+        final int[] visibleRange = getVisibleRange(textView, markdown.length());
+        final var currentText = textView.getText();
+        final boolean diffInPlace;
+        final Spannable text;
+        final List<SpanChange> changes;
+
+        if (currentText instanceof Editable editable && editable.length() > 0) {
+            // Keeps layout, selection and scroll position of the unchanged paragraphs
+            diffInPlace = true;
+            text = editable;
+            changes = SpannableDiffUtil.diff(editable, markdown);
+        } else if (currentText instanceof Spannable spannable && spannable.length() > 0 && TextUtils.equals(spannable, markdown)) {
+            diffInPlace = true;
+            text = spannable;
+            changes = SpannableDiffUtil.diffSpans(spannable, markdown);
+        } else {
+            diffInPlace = false;
+            text = new SpannableString(markdown.toString());
+            changes = new ArrayList<>();
+            for (final var span : markdown.getSpans(0, markdown.length(), Object.class)) {
+                changes.add(new SpanChange(span, markdown.getSpanStart(span), markdown.getSpanEnd(span), markdown.getSpanFlags(span), true));
+            }
+        }
+
+        final var visibleChanges = new ArrayList<SpanChange>();
+        final var changesBelow = new ArrayList<SpanChange>();
+        final var changesAbove = new ArrayList<SpanChange>();
+
+        for (final var change : changes) {
+            if (change.end() < visibleRange[0]) {
+                changesAbove.add(change);
+            } else if (change.start() > visibleRange[1]) {
+                changesBelow.add(change);
+            } else {
+                visibleChanges.add(change);
+            }
+        }
+
+        for (final var change : visibleChanges) {
+            change.applyTo(text);
+        }
+
+        changesBelow.sort(comparingInt(SpanChange::start));
+        changesAbove.sort(comparingInt(change -> -change.end()));
+        final var remainingChanges = new ArrayList<SpanChange>(changesBelow.size() + changesAbove.size());
+        remainingChanges.addAll(changesBelow);
+        remainingChanges.addAll(changesAbove);
+
+        if (!diffInPlace) {
+            textView.setText(text, TextView.BufferType.SPANNABLE);
+        }
+
+        final var slice = new Slice(textView, MarkdownUtil.getContentAsSpannable(textView), remainingChanges, markwon.getPlugins(), onComplete);
+        pendingSlice = slice;
+        slice.run(deadline);
+    }
+
+    /**
+     * Stops applying the remaining work of a previous {@link #setParsedMarkdown(TextView, Spanned, Runnable)} call.
+     */
+    @MainThread
+    public void cancel() {
+        if (pendingSlice != null) {
+            Choreographer.getInstance().removeFrameCallback(pendingSlice);
+            pendingSlice = null;
+        }
+    }
+
+    /**
+     * @return the start and end offset of the currently visible part of the {@param textView}, limited to {@param length}.
+     * Since this is based on the current layout, it is only an approximation for the text about to be set.
+     */
+    @NonNull
+    private static int[] getVisibleRange(@NonNull TextView textView, int length) {
+        final int[] visibleRange = MarkdownUtil.getVisibleRange(textView, 0);
+        return new int[]{Math.min(visibleRange[0], length), Math.min(visibleRange[1], length)};
+    }
+
+    private class Slice implements Choreographer.FrameCallback {
+
+        @NonNull
+        private final TextView textView;
+        @NonNull
+        private final Spannable target;
+        @NonNull
+        private final List<SpanChange> spans;
+        @NonNull
+        private final List<? extends MarkwonPlugin> plugins;
+        @Nullable
+        private final Runnable onComplete;
+        private int nextSpan = 0;
+        private int nextPlugin = 0;
+
+        private Slice(@NonNull TextView textView,
+                      @NonNull Spannable target,
+                      @NonNull List<SpanChange> spans,
+                      @NonNull List<? extends MarkwonPlugin> plugins,
+                      @Nullable Runnable onComplete) {
+            this.textView = textView;
+            this.target = target;
+            this.spans = spans;
+            this.plugins = plugins;
+            this.onComplete = onComplete;
+        }
+
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            run(nanoTime.getAsLong() + frameBudgetNanos);
+        }
+
+        private void run(long deadline) {
+            boolean progressed = false;
+
+            while (nextSpan < spans.size()) {
+                spans.get(nextSpan++).applyTo(target);
+                progressed = true;
+                if (nextSpan % SPANS_PER_TIME_CHECK == 0 && nanoTime.getAsLong() > deadline) {
+                    Choreographer.getInstance().postFrameCallback(this);
+                    return;
+                }
+            }
+
+            while (nextPlugin < plugins.size()) {
+                // A single hook can not be split, so at least one gets executed per frame
+                if (progressed && nanoTime.getAsLong() > deadline) {
+                    Choreographer.getInstance().postFrameCallback(this);
+                    return;
+                }
+                plugins.get(nextPlugin++).afterSetText(textView);
+                progressed = true;
+            }
+
+            pendingSlice = null;
+            if (onComplete != null) {
+                onComplete.run();
+            }
+        }
+    }
+}
@@ -0,0 +1,308 @@
+package it.niedermann.android.markdown.markwon.plugins;
+
+import static java.util.Comparator.comparingInt;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.text.Editable;
+import android.text.Spanned;
+import android.text.TextWatcher;
+import android.widget.TextView;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+
+import org.commonmark.node.Node;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+import io.noties.markwon.AbstractMarkwonPlugin;
+import io.noties.markwon.MarkwonVisitor;
+import io.noties.markwon.core.spans.HeadingSpan;
+import it.niedermann.android.markdown.MarkdownUtil;
+import it.niedermann.android.markdown.model.OutlineEntry;
+
+/**
+ * Collects the headings of the rendered markdown while rendering, so consumers do not need to parse the markdown a second time to build a table of contents.
+ * <p>
+ * The rendered offsets are read from the positions of the {@link HeadingSpan}s in the {@link TextView}. Since other plugins like the mentions can change the text after it has been set, the outline is published again whenever the positions of the headings change.
+ */
+public class OutlinePlugin extends AbstractMarkwonPlugin {
+
+    private static final Pattern PATTERN_ATX_HEADING = Pattern.compile("^ {0,3}(#{1,6})(?:[ \t].*)?$");
+    private static final Pattern PATTERN_SETEXT_UNDERLINE = Pattern.compile("^ {0,3}(=+|-+)[ \t]*$");
+    private static final Pattern PATTERN_FENCE = Pattern.compile("^ {0,3}(`{3,}|~{3,})");
+    private static final Pattern PATTERN_BLOCK_QUOTE_PREFIX = Pattern.compile("^(?: {0,3}> ?)+");
+
+    @NonNull
+    private final Consumer<List<OutlineEntry>> outlineListener;
+    /**
+     * {@link #processMarkdown(String)} and {@link #afterRender(Node, MarkwonVisitor)} are called one after another on the same thread for each rendering.
+     */
+    @Nullable
+    private String source = null;
+    /**
+     * Headings of the markdown which is currently set to the {@link TextView}
+     */
+    @NonNull
+    private List<Heading> headings = Collections.emptyList();
+    /**
+     * The outline which has been published the last time or <code>null</code> if it needs to be published in any case
+     */
+    @Nullable
+    private List<OutlineEntry> outline = null;
+    @Nullable
+    private TextView watchedTextView = null;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private boolean publishPending = false;
+    /**
+     * Publishing is deferred until the current change is complete, e.g. {@link it.niedermann.android.markdown.markwon.SpannableDiffUtil} moves the spans after replacing the text.
+     * Several changes in a row get published only once.
+     */
+    private final Runnable publishAfterTextChanged = () -> {
+        publishPending = false;
+        if (watchedTextView != null && !headings.isEmpty() && watchedTextView.getText() instanceof Spanned text) {
+            publish(text);
+        }
+    };
+    private final TextWatcher headingPositionWatcher = new TextWatcher() {
+        @Override
+        public void beforeTextChanged(CharSequence s, int start, int count, int after) {
+            // Only the result is of interest
+        }
+
+        @Override
+        public void onTextChanged(CharSequence s, int start, int before, int count) {
+            // Only the result is of interest
+        }
+
+        @Override
+        public void afterTextChanged(Editable s) {
+            // While new markdown is being set, the headings are not known yet
+            if (!headings.isEmpty() && !publishPending) {
+                publishPending = true;
+                handler.post(publishAfterTextChanged);
+            }
+        }
+    };
+
+    /**
+     * @param outlineListener will be called on the UI thread with the outline of the markdown which has just been set
+     */
+    public OutlinePlugin(@NonNull Consumer<List<OutlineEntry>> outlineListener) {
+        this.outlineListener = outlineListener;
+    }
+
+    public static OutlinePlugin create(@NonNull Consumer<List<OutlineEntry>> outlineListener) {
+        return new OutlinePlugin(outlineListener);
+    }
+
+    @NonNull
+    @Override
+    public String processMarkdown(@NonNull String markdown) {
+        this.source = markdown;
+        return super.processMarkdown(markdown);
+    }
+
+    /**
+     * Attaches the outline to the rendered markdown using an {@link OutlineMarkerSpan}, so it can not get mixed up with other renderings before it has been set.
+     */
+    @Override
+    public void afterRender(@NonNull Node node, @NonNull MarkwonVisitor visitor) {
+        super.afterRender(node, visitor);
+
+        final var builder = visitor.builder();
+        if (builder.length() == 0) {
+            return;
+        }
+
+        final var headingSpans = builder.getSpans(0, builder.length())
+                .stream()
+                .filter(span -> span.what instanceof HeadingSpan)
+                .sorted(comparingInt(span -> span.start))
+                .collect(Collectors.toList());
+
+        final var sourceLines = source == null ? Collections.<int[]>emptyList() : findHeadingLines(source);
+        final var headings = new ArrayList<Heading>(headingSpans.size());
+        int nextSourceLine = 0;
+
+        for (final var span : headingSpans) {
+            final var headingSpan = (HeadingSpan) span.what;
+            final int level = headingSpan.getLevel();
+            int sourceOffset = -1;
+            for (int i = nextSourceLine; i < sourceLines.size(); i++) {
+                if (sourceLines.get(i)[0] == level) {
+                    sourceOffset = sourceLines.get(i)[1];
+                    nextSourceLine = i + 1;
+                    break;
+                }
+            }
+            headings.add(new Heading(headingSpan, level, sourceOffset));
+        }
+
+        builder.setSpan(new OutlineMarkerSpan(Collections.unmodifiableList(headings)), 0, builder.length());
+        this.source = null;
+    }
+
+    /**
+     * The headings of the previous markdown are outdated as soon as new markdown is about to be set.
+     */
+    @Override
+    public void beforeSetText(@NonNull TextView textView, @NonNull Spanned markdown) {
+        super.beforeSetText(textView, markdown);
+        this.headings = Collections.emptyList();
+    }
+
+    /**
+     * Publishes the outline and removes the {@link OutlineMarkerSpan} from {@param textView}.
+     */
+    @Override
+    public void afterSetText(@NonNull TextView textView) {
+        super.afterSetText(textView);
+        final var spannable = MarkdownUtil.getContentAsSpannable(textView);
+        final var markerSpans = spannable.getSpans(0, spannable.length(), OutlineMarkerSpan.class);
+        for (final var span : markerSpans) {
+            spannable.removeSpan(span);
+        }
+
+        if (watchedTextView != textView) {
+            if (watchedTextView != null) {
+                watchedTextView.removeTextChangedListener(headingPositionWatcher);
+            }
+            textView.addTextChangedListener(headingPositionWatcher);
+            watchedTextView = textView;
+        }
+
+        handler.removeCallbacks(publishAfterTextChanged);
+        publishPending = false;
+        this.headings = markerSpans.length == 0 ? Collections.emptyList() : markerSpans[markerSpans.length - 1].headings;
+        this.outline = null;
+        publish(spannable);
+    }
+
+    /**
+     * Calls the {@link #outlineListener} in case the {@link #outline} changed since it has been published the last time.
+     */
+    private void publish(@NonNull Spanned text) {
+        final var previousOutline = this.outline;
+        final var outline = new ArrayList<OutlineEntry>(headings.size());
+        for (int i = 0; i < headings.size(); i++) {
+            final var heading = headings.get(i);
+            final int start = text.getSpanStart(heading.span());
+            final int end = text.getSpanEnd(heading.span());
+            if (start < 0 || end < start) {
+                // The heading got removed together with its text
+                continue;
+            }
+            outline.add(new OutlineEntry(heading.level(), text.subSequence(start, end).toString().trim(), heading.sourceOffset(), start));
+        }
+
+        if (!outline.equals(previousOutline)) {
+            this.outline = Collections.unmodifiableList(outline);
+            outlineListener.accept(this.outline);
+        }
+    }
+
+    /**
+     * commonmark does not track source positions, so the heading lines are looked up in the {@param source} with a single linear scan.
+     * Headings inside of block quotes are found as well. Fenced code blocks are skipped, remaining ambiguities are resolved by matching the heading levels in document order.
+     *
+     * @return pairs of the heading level and the offset of the heading line in {@param source}
+     */
+    @VisibleForTesting
+    @NonNull
+    static List<int[]> findHeadingLines(@NonNull String source) {
+        final var headingLines = new ArrayList<int[]>();
+        String fence = null;
+        int paragraphStart = -1;
+        int paragraphQuoteDepth = 0;
+        int lineStart = 0;
+
+        while (lineStart <= source.length()) {
+            final int newLine = source.indexOf('\n', lineStart);
+            final int lineEnd = newLine < 0 ? source.length() : newLine;
+            final var quoteMatcher = PATTERN_BLOCK_QUOTE_PREFIX.matcher(source).region(lineStart, lineEnd);
+            final int quoteDepth;
+            final String line;
+            if (quoteMatcher.lookingAt()) {
+                quoteDepth = countQuoteMarkers(source, lineStart, quoteMatcher.end());
+                line = source.substring(quoteMatcher.end(), lineEnd);
+            } else {
+                quoteDepth = 0;
+                line = source.substring(lineStart, lineEnd);
+            }
+
+            if (quoteDepth != paragraphQuoteDepth) {
+                // A setext underline only belongs to a paragraph of the same block quote
+                paragraphStart = -1;
+            }
+
+            final var fenceMatcher = PATTERN_FENCE.matcher(line);
+            if (fence != null) {
+                if (fenceMatcher.find() && fenceMatcher.group(1).charAt(0) == fence.charAt(0) && fenceMatcher.group(1).length() >= fence.length()) {
+                    fence = null;
+                }
+            } else if (fenceMatcher.find()) {
+                fence = fenceMatcher.group(1);
+                paragraphStart = -1;
+            } else if (line.trim().isEmpty()) {
+                paragraphStart = -1;
+            } else {
+                final var atxMatcher = PATTERN_ATX_HEADING.matcher(line);
+                final var setextMatcher = PATTERN_SETEXT_UNDERLINE.matcher(line);
+                if (atxMatcher.matches()) {
+                    headingLines.add(new int[]{atxMatcher.group(1).length(), lineStart});
+                    paragraphStart = -1;
+                } else if (paragraphStart >= 0 && setextMatcher.matches()) {
+                    headingLines.add(new int[]{setextMatcher.group(1).charAt(0) == '=' ? 1 : 2, paragraphStart});
+                    paragraphStart = -1;
+                } else if (paragraphStart < 0) {
+                    paragraphStart = lineStart;
+                    paragraphQuoteDepth = quoteDepth;
+                }
+            }
+
+            if (newLine < 0) {
+                break;
+            }
+            lineStart = newLine + 1;
+        }
+
+        return headingLines;
+    }
+
+    private static int countQuoteMarkers(@NonNull String source, int start, int end) {
+        int count = 0;
+        for (int i = start; i < end; i++) {
+            if (source.charAt(i) == '>') {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * A heading of the rendered markdown, its position is determined by the {@link #span} when publishing the outline.
+     */
+    private record Heading(@NonNull HeadingSpan span, int level, int sourceOffset) {
+    }
+
+    /**
+     * Carries the headings of a rendering to {@link #afterSetText(TextView)}.
+     */
+    private static final class OutlineMarkerSpan {
+
+        @NonNull
+        private final List<Heading> headings;
+
+        private OutlineMarkerSpan(@NonNull List<Heading> headings) {
+            this.headings = headings;
+        }
+    }
+}
@@ -1,8 +1,10 @@
 package it.niedermann.android.markdown.markwon.plugins;
 
 import static it.niedermann.android.markdown.MarkdownUtil.getContentAsSpannable;
+import static java.util.Comparator.comparingInt;
 
 import android.content.Context;
+import android.text.Spannable;
 import android.text.TextUtils;
 import android.util.TypedValue;
 import android.widget.TextView;
@@ -11,9 +13,12 @@ import androidx.annotation.ColorInt;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
+import java.util.Arrays;
+
 import io.noties.markwon.AbstractMarkwonPlugin;
 import io.noties.markwon.MarkwonPlugin;
 import it.niedermann.android.markdown.MarkdownUtil;
+import it.niedermann.android.markdown.ThemeUtils;
 import it.niedermann.android.markdown.model.SearchSpan;
 
 public class SearchHighlightPlugin extends AbstractMarkwonPlugin {
@@ -61,6 +66,34 @@ public class SearchHighlightPlugin extends AbstractMarkwonPlugin {
         this.color = color;
     }
 
+    /**
+     * Replaces the existing {@link SearchSpan}s of {@param textView} with ones using the current color without rendering the markdown again.
+     *
+     * @see #setColor(int)
+     */
+    public void recolor(@NonNull TextView textView) {
+        if (this.searchText == null) {
+            return;
+        }
+
+        final var context = textView.getContext();
+        final var util = ThemeUtils.Companion.of(color);
+        final var spannable = getContentAsSpannable(textView);
+        final var searchSpans = spannable.getSpans(0, spannable.length(), SearchSpan.class);
+        Arrays.sort(searchSpans, comparingInt(spannable::getSpanStart));
+
+        for (int i = 0; i < searchSpans.length; i++) {
+            final var oldSpan = searchSpans[i];
+            final int start = spannable.getSpanStart(oldSpan);
+            final int end = spannable.getSpanEnd(oldSpan);
+            final var newSpan = current == null || i + 1 == current
+                    ? new SearchSpan(util.getPrimary(context), util.getOnPrimary(context))
+                    : new SearchSpan(util.getSecondary(context), util.getOnSecondary(context));
+            spannable.removeSpan(oldSpan);
+            spannable.setSpan(newSpan, start, end, Spannable.SPAN_EXCLUSIVE_EXCLUSIVE);
+        }
+    }
+
     /**
      * @deprecated use {@link #setColor(int)}
      */
@@ -132,7 +132,6 @@ public class ToggleableTaskListPlugin extends AbstractMarkwonPlugin {
         for (final var span : spannable.getSpans(0, spannable.length(), ToggleMarkerSpan.class)) {
             spannable.removeSpan(span);
         }
-        textView.setText(spannable);
     }
 
     /**
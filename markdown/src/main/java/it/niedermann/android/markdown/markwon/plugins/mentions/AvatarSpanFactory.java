@@ -53,6 +53,13 @@ class AvatarSpanFactory implements SpanFactory {
         }
     }
 
+    static class AvatarBrokenSpan extends ImageSpan {
+
+        AvatarBrokenSpan(@NonNull Drawable drawable) {
+            super(drawable);
+        }
+    }
+
     record PotentialAvatarSpan(@NonNull String userId, @NonNull String url) {
     }
 }
\ No newline at end of file
@@ -1,5 +1,6 @@
 package it.niedermann.android.markdown.markwon.plugins.mentions;
 
+import static it.niedermann.android.markdown.markwon.plugins.mentions.AvatarSpanFactory.AvatarBrokenSpan;
 import static it.niedermann.android.markdown.markwon.plugins.mentions.AvatarSpanFactory.AvatarPlaceholderSpan;
 
 import android.content.Context;
@@ -9,6 +10,7 @@ import android.text.Spannable;
 import android.text.SpannableStringBuilder;
 import android.text.style.ImageSpan;
 
+import androidx.annotation.MainThread;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.annotation.WorkerThread;
@@ -103,7 +105,7 @@ public class AvatarUtil {
                                 e.printStackTrace();
                             }
 
-                            spannable.setSpan(new ImageSpan(avatarBroken.get()), spanStart, spanEnd, Spannable.SPAN_EXCLUSIVE_EXCLUSIVE);
+                            spannable.setSpan(new AvatarBrokenSpan(avatarBroken.get()), spanStart, spanEnd, Spannable.SPAN_EXCLUSIVE_EXCLUSIVE);
                             spannable.removeSpan(span);
                             return false;
                         }
@@ -132,4 +134,27 @@ public class AvatarUtil {
         latch.await();
         return spannable;
     }
+
+    /**
+     * Swaps the {@link Drawable}s of all {@link AvatarPlaceholderSpan}s and {@link AvatarBrokenSpan}s in {@param spannable} with the current ones, e. g. after the color changed.
+     * This happens in place, so no re-rendering and no network requests are necessary.
+     */
+    @MainThread
+    public void recolorPlaceholders(@NonNull Spannable spannable) {
+        for (final var span : spannable.getSpans(0, spannable.length(), AvatarPlaceholderSpan.class)) {
+            replaceSpan(spannable, span, new AvatarPlaceholderSpan(avatarPlaceholder.get(), span.userId, span.url));
+        }
+
+        for (final var span : spannable.getSpans(0, spannable.length(), AvatarBrokenSpan.class)) {
+            replaceSpan(spannable, span, new AvatarBrokenSpan(avatarBroken.get()));
+        }
+    }
+
+    private static void replaceSpan(@NonNull Spannable spannable, @NonNull Object oldSpan, @NonNull Object newSpan) {
+        final int spanStart = spannable.getSpanStart(oldSpan);
+        final int spanEnd = spannable.getSpanEnd(oldSpan);
+        final int spanFlags = spannable.getSpanFlags(oldSpan);
+        spannable.removeSpan(oldSpan);
+        spannable.setSpan(newSpan, spanStart, spanEnd, spanFlags);
+    }
 }
@@ -34,6 +34,7 @@ import io.noties.markwon.inlineparser.MarkwonInlineParser;
 import it.niedermann.android.markdown.MarkdownUtil;
 import it.niedermann.android.markdown.R;
 import it.niedermann.android.markdown.ThemeUtils;
+import it.niedermann.android.markdown.markwon.SpannableDiffUtil;
 
 public class MentionsPlugin extends AbstractMarkwonPlugin {
 
@@ -120,7 +121,7 @@ public class MentionsPlugin extends AbstractMarkwonPlugin {
                     final var spannableWithDisplayNamesAndAvatarPlaceholders = avatarUtil.replacePotentialAvatarsWithPlaceholders(ssoAccount, spannableWithDisplayNames);
                     if (executor.isShutdown()) return;
                     textView.post(() -> {
-                        textView.setText(spannableWithDisplayNamesAndAvatarPlaceholders);
+                        SpannableDiffUtil.setText(textView, spannableWithDisplayNamesAndAvatarPlaceholders);
                         if (executor.isShutdown()) return;
                         executor.submit(() -> {
                             try {
@@ -128,7 +129,7 @@ public class MentionsPlugin extends AbstractMarkwonPlugin {
                                 if (executor.isShutdown()) return;
                                 textView.post(() -> {
                                     if (executor.isShutdown()) return;
-                                    textView.setText(spannableWithDisplayNamesAndActualAvatars);
+                                    SpannableDiffUtil.setText(textView, spannableWithDisplayNamesAndActualAvatars);
                                     executor.shutdown();
                                 });
                             } catch (InterruptedException ignored) {
@@ -157,6 +158,15 @@ public class MentionsPlugin extends AbstractMarkwonPlugin {
         avatarBroken.set(getTintedDrawable(utils, context, R.drawable.ic_baseline_broken_image_24));
     }
 
+    /**
+     * Applies the current color to the already rendered mentions of {@param textView} without parsing the markdown or fetching anything again.
+     *
+     * @see #setColor(int)
+     */
+    public void recolor(@NonNull TextView textView) {
+        avatarUtil.recolorPlaceholders(MarkdownUtil.getContentAsSpannable(textView));
+    }
+
     private Drawable getTintedDrawable(@NonNull ThemeUtils utils, @NonNull Context context, @DrawableRes int drawableRes) {
         final var drawable = ContextCompat.getDrawable(context, drawableRes);
         final var tintedDrawable = Objects.requireNonNull(drawable);
@@ -1,81 +1,62 @@
 package it.niedermann.android.markdown.markwon.textwatcher;
 
-import static it.niedermann.android.markdown.MarkdownUtil.getEndOfLine;
 import static it.niedermann.android.markdown.MarkdownUtil.getListItemIfIsEmpty;
-import static it.niedermann.android.markdown.MarkdownUtil.getOrderedListNumber;
-import static it.niedermann.android.markdown.MarkdownUtil.getStartOfLine;
-import static it.niedermann.android.markdown.MarkdownUtil.lineStartsWithCheckbox;
 
 import android.text.Editable;
-import android.text.TextWatcher;
 
 import androidx.annotation.NonNull;
 
-import java.util.regex.Pattern;
+import java.util.function.Supplier;
 
 import it.niedermann.android.markdown.markwon.MarkwonMarkdownEditor;
-import it.niedermann.android.markdown.model.EListType;
 
 /**
  * Automatically continues lists and checkbox lists when pressing enter
  */
-public class AutoContinuationTextWatcher extends InterceptorTextWatcher {
+public class AutoContinuationTextWatcher implements TextWatcherStage {
 
     @NonNull
     private final MarkwonMarkdownEditor editText;
 
     private CharSequence customText = null;
-    private CharSequence oldText = null;
     private boolean isInsert = true;
     private int sequenceStart = 0;
-    private static final Pattern REGEX_WHITESPACES = Pattern.compile("^\\s*");
+    /**
+     * Insertions of at least this many characters are considered as pasted and do not continue lists
+     */
+    private static final int BULK_INSERTION_THRESHOLD = 1_000;
 
-    public AutoContinuationTextWatcher(@NonNull TextWatcher originalWatcher, @NonNull MarkwonMarkdownEditor editText) {
-        super(originalWatcher);
+    public AutoContinuationTextWatcher(@NonNull MarkwonMarkdownEditor editText) {
         this.editText = editText;
     }
 
     @Override
-    public void onTextChanged(CharSequence s, int start, int before, int count) {
-        if (count > 0) {
-            final var inserted = getInsertedString(s, start, before, count);
-            if (inserted.length() > 0 && inserted.charAt(inserted.length() - 1) == '\n') {
-                handleNewlineInserted(s, start, count);
-            }
+    public void onTextChanged(@NonNull CharSequence s, int start, int before, int count, @NonNull Supplier<LineContext> lineContext) {
+        // Only looks at the inserted range and the edited line, so typing does not depend on the length of the document
+        if (count > before && count < BULK_INSERTION_THRESHOLD && s.charAt(start + count - 1) == '\n') {
+            handleNewlineInserted(lineContext.get(), start, count);
         }
-        oldText = s.toString();
-        originalWatcher.onTextChanged(s, start, before, count);
     }
 
     @Override
-    public void afterTextChanged(Editable s) {
-        if (customText != null) {
-            final var customText = this.customText;
-            this.customText = null;
-            if (isInsert) {
-                insertCustomText(s, customText);
-            } else {
-                deleteCustomText(s, customText);
-            }
-        } else {
-            originalWatcher.afterTextChanged(s);
+    public boolean afterTextChanged(@NonNull Editable s) {
+        if (customText == null) {
+            return false;
         }
-        editText.setMarkdownStringModel(s);
-    }
-
-    private CharSequence getInsertedString(CharSequence newText, int start, int before, int count) {
-        if (newText != null && newText.length() > (oldText == null ? 0 : oldText.length())) {
-            // character added
-            final int position = start + before;
-            return newText.subSequence(position, position + count - before);
+        final var customText = this.customText;
+        this.customText = null;
+        if (isInsert) {
+            insertCustomText(s, customText);
+        } else {
+            deleteCustomText(s, customText);
         }
-        return "";
+        return true;
     }
 
     private void deleteCustomText(Editable s, CharSequence customText) {
         int cutPosition = sequenceStart;
-        for (int i = 0; i < customText.length(); i++) {
-            if (oldText.charAt(cutPosition) == customText.charAt(i)) {
+        for (int i = 0; i < customText.length() && cutPosition < s.length(); i++) {
+            if (s.charAt(cutPosition) == customText.charAt(i)) {
                 cutPosition++;
             } else break;
         }
@@ -87,41 +68,30 @@ public class AutoContinuationTextWatcher extends InterceptorTextWatcher {
         s.insert(sequenceStart, customText);
     }
 
-    private void handleNewlineInserted(CharSequence originalSequence, int start, int count) {
-        final var s = originalSequence.subSequence(0, originalSequence.length());
-        final int startOfLine = getStartOfLine(s, start);
-        final String line = s.subSequence(startOfLine, getEndOfLine(s, start)).toString();
-
-        final var emptyListString = getListItemIfIsEmpty(line);
+    private void handleNewlineInserted(@NonNull LineContext lineContext, int start, int count) {
+        final var emptyListString = getListItemIfIsEmpty(lineContext.line());
         if (emptyListString.isPresent()) {
             customText = emptyListString.get();
             isInsert = false;
-            sequenceStart = startOfLine;
-        } else {
-            final var builder = new StringBuilder();
-            final var matcher = REGEX_WHITESPACES.matcher(line);
-            if (matcher.find()) {
-                builder.append(matcher.group());
-            }
-            final String trimmedLine = line.trim();
-            for (final var listType : EListType.values()) {
-                final boolean isCheckboxList = lineStartsWithCheckbox(trimmedLine, listType);
-                final boolean isPlainList = !isCheckboxList && trimmedLine.startsWith(listType.listSymbolWithTrailingSpace);
-                if (isPlainList || isCheckboxList) {
-                    builder.append(isPlainList ? listType.listSymbolWithTrailingSpace : listType.checkboxUncheckedWithTrailingSpace);
-                    customText = builder;
-                    isInsert = true;
-                    sequenceStart = start + count;
-                    return;
-                }
-            }
+            sequenceStart = lineContext.lineStart();
+            return;
+        }
 
-            final var orderedListNumber = getOrderedListNumber(trimmedLine);
-            if (orderedListNumber.isPresent()) {
-                customText = builder.append(orderedListNumber.get() + 1).append(". ");
-                isInsert = true;
-                sequenceStart = start + count;
+        final var listType = lineContext.listType();
+        if (listType != null) {
+            if (lineContext.checkbox()) {
+                customText = lineContext.indention() + listType.checkboxUncheckedWithTrailingSpace;
+            } else if (lineContext.trimmedLine().startsWith(listType.listSymbolWithTrailingSpace)) {
+                customText = lineContext.indention() + listType.listSymbolWithTrailingSpace;
+            } else {
+                return;
             }
+        } else if (lineContext.orderedListNumber() != null) {
+            customText = lineContext.indention() + (lineContext.orderedListNumber() + 1) + ". ";
+        } else {
+            return;
         }
+        isInsert = true;
+        sequenceStart = start + count;
     }
 }
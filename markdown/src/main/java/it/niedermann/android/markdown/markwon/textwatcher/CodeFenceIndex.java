@@ -0,0 +1,212 @@
+package it.niedermann.android.markdown.markwon.textwatcher;
+
+import static it.niedermann.android.markdown.MarkdownUtil.getEndOfLine;
+import static it.niedermann.android.markdown.MarkdownUtil.getStartOfLine;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Positions of all lines which open or close a fenced code block (<code>```</code> or <code>~~~</code>, indented by up to three spaces).
+ * <p>
+ * The text gets scanned only once, afterwards the index is kept up to date by rescanning only the lines touched by each change.
+ * This allows finding the code blocks around an edit without scanning the document from its start.
+ */
+class CodeFenceIndex {
+
+    /**
+     * Sorted by {@link Fence#lineStart}
+     */
+    @NonNull
+    private final List<Fence> fences = new ArrayList<>();
+    /**
+     * Fences removed by the last {@link #beforeTextChanged(CharSequence, int, int)}
+     */
+    @NonNull
+    private final List<Fence> removed = new ArrayList<>();
+
+    CodeFenceIndex(@NonNull CharSequence s) {
+        addFences(s, 0, s.length(), 0);
+    }
+
+    /**
+     * Must be called with the old text before {@param count} characters at {@param start} get replaced.
+     * Removes the fences on all lines touched by the change, they get scanned again by {@link #onTextChanged(CharSequence, int, int, int)}.
+     */
+    void beforeTextChanged(@NonNull CharSequence s, int start, int count) {
+        removed.clear();
+        final int index = indexOf(getStartOfLine(s, Math.min(start, s.length())));
+        while (index < fences.size() && fences.get(index).lineStart <= start + count) {
+            removed.add(fences.remove(index));
+        }
+    }
+
+    /**
+     * Must be called with the new text after {@param before} characters at {@param start} have been replaced by {@param count} characters.
+     *
+     * @return whether the sequence of fences changed, which might change the meaning of everything following the change
+     */
+    boolean onTextChanged(@NonNull CharSequence s, int start, int before, int count) {
+        final int from = getStartOfLine(s, Math.min(start, s.length()));
+        final int index = indexOf(from);
+        for (int i = index; i < fences.size(); i++) {
+            fences.get(i).lineStart += count - before;
+        }
+
+        final int added = addFences(s, from, getEndOfLine(s, start + count), index);
+        boolean changed = added != removed.size();
+        for (int i = 0; !changed && i < added; i++) {
+            changed = !fences.get(index + i).isEquivalent(removed.get(i));
+        }
+        removed.clear();
+        return changed;
+    }
+
+    /**
+     * @return {@param start} and {@param end} extended by all fenced code blocks intersecting with them.
+     * A code block which is not closed extends to the {@param length} of the text.
+     */
+    @NonNull
+    int[] includeCodeBlocks(int start, int end, int length) {
+        @Nullable Fence opening = null;
+        for (final var fence : fences) {
+            if (opening == null) {
+                if (fence.lineStart > end) {
+                    break;
+                }
+                opening = fence;
+            } else if (opening.isClosedBy(fence)) {
+                if (fence.lineEnd() >= start) {
+                    start = Math.min(start, opening.lineStart);
+                    end = Math.max(end, Math.min(fence.lineEnd(), length));
+                }
+                opening = null;
+            }
+        }
+
+        if (opening != null && opening.lineStart <= end) {
+            start = Math.min(start, opening.lineStart);
+            end = length;
+        }
+        return new int[]{start, end};
+    }
+
+    /**
+     * Adds the fences of all lines starting between {@param from} and {@param to} at {@param index}.
+     *
+     * @return the number of added fences
+     */
+    private int addFences(@NonNull CharSequence s, int from, int to, int index) {
+        int added = 0;
+        int lineStart = from;
+        while (lineStart <= to && lineStart <= s.length()) {
+            final int lineEnd = getEndOfLine(s, lineStart);
+            final var fence = parse(s, lineStart, lineEnd);
+            if (fence != null) {
+                fences.add(index + added, fence);
+                added++;
+            }
+            lineStart = lineEnd + 1;
+        }
+        return added;
+    }
+
+    /**
+     * @return the index of the first fence starting at or after {@param position}
+     */
+    private int indexOf(int position) {
+        int low = 0;
+        int high = fences.size();
+        while (low < high) {
+            final int middle = (low + high) >>> 1;
+            if (fences.get(middle).lineStart < position) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * @return the fence on the line from {@param lineStart} to {@param lineEnd} or <code>null</code> if it is no fence
+     */
+    @Nullable
+    static Fence parse(@NonNull CharSequence s, int lineStart, int lineEnd) {
+        int markerStart = lineStart;
+        while (markerStart < lineEnd && markerStart - lineStart < 3 && s.charAt(markerStart) == ' ') {
+            markerStart++;
+        }
+        if (markerStart >= lineEnd) {
+            return null;
+        }
+
+        final char marker = s.charAt(markerStart);
+        if (marker != '`' && marker != '~') {
+            return null;
+        }
+        int markerEnd = markerStart;
+        while (markerEnd < lineEnd && s.charAt(markerEnd) == marker) {
+            markerEnd++;
+        }
+        if (markerEnd - markerStart < 3) {
+            return null;
+        }
+
+        boolean closing = true;
+        for (int i = markerEnd; i < lineEnd; i++) {
+            final char c = s.charAt(i);
+            if (marker == '`' && c == '`') {
+                // The info string of backtick fences must not contain backticks
+                return null;
+            }
+            if (!Character.isWhitespace(c)) {
+                closing = false;
+            }
+        }
+        return new Fence(lineStart, lineEnd - lineStart, marker, markerEnd - markerStart, closing);
+    }
+
+    static final class Fence {
+        /**
+         * The only property which changes, when text before the fence gets edited
+         */
+        private int lineStart;
+        private final int lineLength;
+        private final char marker;
+        private final int length;
+        /**
+         * Whether the fence has no info string and thus can close a code block
+         */
+        private final boolean closing;
+
+        private Fence(int lineStart, int lineLength, char marker, int length, boolean closing) {
+            this.lineStart = lineStart;
+            this.lineLength = lineLength;
+            this.marker = marker;
+            this.length = length;
+            this.closing = closing;
+        }
+
+        private int lineEnd() {
+            return lineStart + lineLength;
+        }
+
+        /**
+         * @return whether {@param fence} closes the code block opened by this fence
+         */
+        boolean isClosedBy(@NonNull Fence fence) {
+            return fence.closing && fence.marker == marker && fence.length >= length;
+        }
+
+        /**
+         * @return whether {@param fence} opens and closes the same code blocks as this fence
+         */
+        private boolean isEquivalent(@NonNull Fence fence) {
+            return fence.closing == closing && fence.marker == marker && fence.length == length;
+        }
+    }
+}
@@ -7,23 +7,67 @@ import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
 import java.util.HashMap;
-import java.util.concurrent.Executors;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 
 import io.noties.markwon.editor.MarkwonEditor;
-import io.noties.markwon.editor.MarkwonEditorTextWatcher;
 import it.niedermann.android.markdown.markwon.MarkwonMarkdownEditor;
 
-public class CombinedTextWatcher extends HashMap<Class<?>, TextWatcher> implements TextWatcher {
+/**
+ * Dispatches each change to the {@link TextWatcherStage}s and the {@link IncrementalHighlightTextWatcher}.
+ * The line the change happened in gets analyzed at most once and is shared by all stages as {@link LineContext}.
+ * The values of this map are the stages and watchers themselves, look them up by their type with {@link #get(Class)}.
+ */
+public class CombinedTextWatcher extends HashMap<Class<?>, Object> implements TextWatcher {
 
-    private final TextWatcher watcher;
+    /**
+     * Shared by all editors, so screens recreating editors, e.g. in a ViewPager, do not leak threads.
+     * Each editor has at most one pending rendering, its threads terminate when idle.
+     */
+    private static final ExecutorService PRE_RENDER_EXECUTOR = createPreRenderExecutor();
+
+    @NonNull
+    private final MarkwonMarkdownEditor editText;
+    @NonNull
+    private final IncrementalHighlightTextWatcher highlightWatcher;
+    /**
+     * Get the chance to change the content again before it gets highlighted
+     */
+    @NonNull
+    private final List<TextWatcherStage> interceptors;
+    /**
+     * Run after the highlighting
+     */
+    @NonNull
+    private final List<TextWatcherStage> decorators;
+    private boolean bypassInterceptors = false;
+    @Nullable
+    private LineContext lineContext;
 
-    @SuppressWarnings("ConstantConditions")
     public CombinedTextWatcher(@NonNull MarkwonEditor editor, @NonNull MarkwonMarkdownEditor editText) {
-        put(MarkwonEditorTextWatcher.class, MarkwonEditorTextWatcher.withPreRender(editor, Executors.newSingleThreadExecutor(), editText));
-        put(AutoContinuationTextWatcher.class, new AutoContinuationTextWatcher(get(MarkwonEditorTextWatcher.class), editText));
-        put(LowerIndentionTextWatcher.class, new LowerIndentionTextWatcher(get(AutoContinuationTextWatcher.class), editText));
-        put(SearchHighlightTextWatcher.class, new SearchHighlightTextWatcher(get(LowerIndentionTextWatcher.class), editText));
-        watcher = get(SearchHighlightTextWatcher.class);
+        this.editText = editText;
+        this.highlightWatcher = new IncrementalHighlightTextWatcher(editor, PRE_RENDER_EXECUTOR, editText);
+        final var lowerIndentionWatcher = new LowerIndentionTextWatcher(editText);
+        final var autoContinuationWatcher = new AutoContinuationTextWatcher(editText);
+        final var searchHighlightWatcher = new SearchHighlightTextWatcher(editText);
+        this.interceptors = List.of(lowerIndentionWatcher, autoContinuationWatcher);
+        this.decorators = List.of(searchHighlightWatcher);
+
+        put(IncrementalHighlightTextWatcher.class, highlightWatcher);
+        put(LowerIndentionTextWatcher.class, lowerIndentionWatcher);
+        put(AutoContinuationTextWatcher.class, autoContinuationWatcher);
+        put(SearchHighlightTextWatcher.class, searchHighlightWatcher);
+    }
+
+    private static ExecutorService createPreRenderExecutor() {
+        final int threads = Math.max(1, Math.min(2, Runtime.getRuntime().availableProcessors() - 1));
+        final var executor = new ThreadPoolExecutor(threads, threads, 5L, TimeUnit.SECONDS, new LinkedBlockingQueue<>());
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
     }
 
     @SuppressWarnings({"unchecked"})
@@ -32,18 +76,71 @@ public class CombinedTextWatcher extends HashMap<Class<?>, TextWatcher> implemen
         return (T) super.get(key);
     }
 
+    /**
+     * Runs {@param edit} without automatic list continuation or indention handling, e.g. for changes which have not been typed by the user.
+     * The changed regions are tracked and highlighted once after {@param edit} has finished.
+     *
+     * @return the result of {@param edit}
+     */
+    public <T> T runWithoutInterceptors(@NonNull Editable editable, @NonNull Supplier<T> edit) {
+        final T result;
+        bypassInterceptors = true;
+        try {
+            result = edit.get();
+        } finally {
+            bypassInterceptors = false;
+        }
+        editText.invalidateMarkdownStringModel();
+        highlightWatcher.afterTextChanged(editable);
+        decorate(editable);
+        return result;
+    }
+
     @Override
     public void beforeTextChanged(CharSequence s, int start, int count, int after) {
-        watcher.beforeTextChanged(s, start, count, after);
+        highlightWatcher.beforeTextChanged(s, start, count, after);
     }
 
     @Override
     public void onTextChanged(CharSequence s, int start, int before, int count) {
-        watcher.onTextChanged(s, start, before, count);
+        highlightWatcher.onTextChanged(s, start, before, count);
+        if (!bypassInterceptors) {
+            lineContext = null;
+            final Supplier<LineContext> lineContextSupplier = () -> {
+                if (lineContext == null) {
+                    lineContext = LineContext.of(s, start);
+                }
+                return lineContext;
+            };
+            for (final var interceptor : interceptors) {
+                interceptor.onTextChanged(s, start, before, count, lineContextSupplier);
+            }
+            for (final var decorator : decorators) {
+                decorator.onTextChanged(s, start, before, count, lineContextSupplier);
+            }
+        }
     }
 
     @Override
     public void afterTextChanged(Editable s) {
-        watcher.afterTextChanged(s);
+        if (bypassInterceptors) {
+            return;
+        }
+        lineContext = null;
+        editText.invalidateMarkdownStringModel();
+        for (final var interceptor : interceptors) {
+            if (interceptor.afterTextChanged(s)) {
+                // The new change has already been highlighted and decorated
+                return;
+            }
+        }
+        highlightWatcher.afterTextChanged(s);
+        decorate(s);
+    }
+
+    private void decorate(@NonNull Editable s) {
+        for (final var decorator : decorators) {
+            decorator.afterTextChanged(s);
+        }
     }
 }
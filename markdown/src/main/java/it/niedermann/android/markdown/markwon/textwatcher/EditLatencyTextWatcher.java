@@ -0,0 +1,84 @@
+package it.niedermann.android.markdown.markwon.textwatcher;
+
+import android.text.Editable;
+import android.text.TextWatcher;
+
+import androidx.annotation.MainThread;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.Arrays;
+
+import it.niedermann.android.markdown.EditLatencyListener;
+
+/**
+ * Remembers when the first not yet processed change happened for each {@link EditLatencyListener.Stage}, so the latency can be reported as soon as the stage has been completed.
+ */
+public class EditLatencyTextWatcher implements TextWatcher {
+
+    private static final long NONE = -1;
+
+    @NonNull
+    private final long[] pendingSince = new long[EditLatencyListener.Stage.values().length];
+    @Nullable
+    private EditLatencyListener listener;
+
+    public EditLatencyTextWatcher() {
+        Arrays.fill(pendingSince, NONE);
+    }
+
+    public void setListener(@Nullable EditLatencyListener listener) {
+        this.listener = listener;
+        Arrays.fill(pendingSince, NONE);
+    }
+
+    @Override
+    public void beforeTextChanged(CharSequence s, int start, int count, int after) {
+        // Nothing to do
+    }
+
+    @Override
+    public void onTextChanged(CharSequence s, int start, int before, int count) {
+        if (listener == null) {
+            return;
+        }
+        final long now = System.nanoTime();
+        for (int i = 0; i < pendingSince.length; i++) {
+            if (pendingSince[i] == NONE) {
+                pendingSince[i] = now;
+            }
+        }
+    }
+
+    @Override
+    public void afterTextChanged(Editable s) {
+        // Nothing to do
+    }
+
+    /**
+     * For stages which are completed asynchronously: Takes the time of the first pending change, which will be reported later by {@link #report(EditLatencyListener.Stage, long, long, int)}.
+     *
+     * @return the time of the first change which has not been processed by {@param stage} or <code>-1</code>
+     */
+    @MainThread
+    public long takeStart(@NonNull EditLatencyListener.Stage stage) {
+        final long start = pendingSince[stage.ordinal()];
+        pendingSince[stage.ordinal()] = NONE;
+        return start;
+    }
+
+    @MainThread
+    public void report(@NonNull EditLatencyListener.Stage stage, long startNanos, long endNanos, int documentLength) {
+        if (listener != null && startNanos != NONE) {
+            listener.onEditLatency(stage, endNanos - startNanos, documentLength);
+        }
+    }
+
+    /**
+     * Reports the latency of the pending changes if {@param stage} has just been completed synchronously.
+     */
+    @MainThread
+    public void complete(@NonNull EditLatencyListener.Stage stage, int documentLength) {
+        report(stage, takeStart(stage), System.nanoTime(), documentLength);
+    }
+}
@@ -0,0 +1,493 @@
+package it.niedermann.android.markdown.markwon.textwatcher;
+
+import static it.niedermann.android.markdown.MarkdownUtil.getEndOfLine;
+import static it.niedermann.android.markdown.MarkdownUtil.getStartOfLine;
+import static java.util.Comparator.comparingInt;
+
+import android.text.Editable;
+import android.text.NoCopySpan;
+import android.text.SpannableStringBuilder;
+import android.text.Spanned;
+import android.text.TextWatcher;
+import android.widget.EditText;
+
+import androidx.annotation.MainThread;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+import androidx.lifecycle.Lifecycle;
+import androidx.lifecycle.LifecycleEventObserver;
+import androidx.lifecycle.LifecycleOwner;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+
+import io.noties.markwon.editor.MarkwonEditor;
+import io.noties.markwon.editor.MarkwonEditorTextWatcher;
+import it.niedermann.android.markdown.MarkdownUtil;
+
+/**
+ * Replacement for {@link MarkwonEditorTextWatcher#withPreRender(MarkwonEditor, ExecutorService, EditText)} which does not highlight the whole document after each keystroke.
+ * <ul>
+ *     <li>Only the paragraphs touched by the edits since the last highlighting are pre-rendered, each region on its own</li>
+ *     <li>Fenced code blocks intersecting with them are included completely. They are looked up in a {@link CodeFenceIndex}, which gets updated with each change, so the document does not need to be scanned from its start</li>
+ *     <li>If a code fence marker gets added or removed, everything from the touched paragraph to the end of the document is pre-rendered, because the following blocks might change their meaning</li>
+ * </ul>
+ * Spans outside of the pre-rendered region are kept untouched, spans reused by the pre-rendering are moved to their new position.
+ * <p>
+ * Documents exceeding the {@link #setViewportHighlightingThreshold(int) viewport highlighting threshold} are only highlighted in a window around the visible lines, which follows the viewport lazily via {@link #onViewportChanged()}.
+ * Highlighting outside of this window gets removed, so the costs depend on the screen size instead of the document size.
+ * Only building the {@link CodeFenceIndex} once scans the whole document. When the document shrinks below the threshold again, it gets highlighted completely.
+ * <p>
+ * When observing a {@link Lifecycle}, pending renderings are cancelled on pause and the remaining changes get highlighted on resume.
+ */
+public class IncrementalHighlightTextWatcher implements TextWatcher, LifecycleEventObserver {
+
+    public static final int DEFAULT_VIEWPORT_HIGHLIGHTING_THRESHOLD = 200_000;
+    /**
+     * Renderings of at least this many characters, e.g. after pasting, report their {@link #setProgressListener(Consumer) progress}
+     */
+    public static final int BULK_HIGHLIGHTING_THRESHOLD = 50_000;
+    /**
+     * Large regions are pre-rendered in chunks of about this size, so the progress can be reported and outdated renderings can be aborted early
+     */
+    private static final int CHUNK_LENGTH = 16 * 1024;
+
+    @NonNull
+    private final MarkwonEditor editor;
+    @NonNull
+    private final ExecutorService executor;
+    @NonNull
+    private final EditText editText;
+
+    /**
+     * Read by the {@link #executor} to abort outdated renderings early
+     */
+    private volatile int generation = 0;
+    /**
+     * Disjoint ranges changed since the last applied highlighting, sorted by their start
+     */
+    @NonNull
+    private final List<int[]> dirtyRanges = new ArrayList<>();
+    private boolean codeFenceChanged = false;
+    /**
+     * Created lazily from the first text this watcher sees, afterwards kept up to date with each change
+     */
+    @Nullable
+    private CodeFenceIndex codeFences;
+    @Nullable
+    private Future<?> pendingRender;
+
+    private int viewportHighlightingThreshold = DEFAULT_VIEWPORT_HIGHLIGHTING_THRESHOLD;
+    private int windowStart = -1;
+    private int windowEnd = -1;
+    /**
+     * Types of all spans which have been added by highlighting, so they can be removed when they leave the highlighted window.
+     */
+    @NonNull
+    private final Set<Class<?>> highlightSpanTypes = new HashSet<>();
+    @Nullable
+    private Consumer<Float> progressListener;
+    @Nullable
+    private Runnable onHighlightAppliedListener;
+
+    public IncrementalHighlightTextWatcher(@NonNull MarkwonEditor editor,
+                                           @NonNull ExecutorService executor,
+                                           @NonNull EditText editText) {
+        this.editor = editor;
+        this.executor = executor;
+        this.editText = editText;
+    }
+
+    @Override
+    public void beforeTextChanged(CharSequence s, int start, int count, int after) {
+        getCodeFences(s).beforeTextChanged(s, start, count);
+    }
+
+    @Override
+    public void onTextChanged(CharSequence s, int start, int before, int count) {
+        for (final var range : dirtyRanges) {
+            range[0] = shift(range[0], start, before, count, start);
+            range[1] = shift(range[1], start, before, count, start + count);
+        }
+        addDirtyRange(start, start + count);
+
+        if (windowStart >= 0) {
+            windowStart = shift(windowStart, start, before, count, start);
+            windowEnd = shift(windowEnd, start, before, count, start + count);
+        }
+
+        if (getCodeFences(s).onTextChanged(s, start, before, count)) {
+            codeFenceChanged = true;
+        }
+    }
+
+    @NonNull
+    private CodeFenceIndex getCodeFences(@NonNull CharSequence s) {
+        if (codeFences == null) {
+            codeFences = new CodeFenceIndex(s);
+        }
+        return codeFences;
+    }
+
+    /**
+     * @return the new position of {@param position} after {@param before} characters at {@param start} have been replaced by {@param count} characters.
+     * {@param fallback} if {@param position} was within the replaced characters.
+     */
+    private static int shift(int position, int start, int before, int count, int fallback) {
+        if (position >= start + before) {
+            return position + count - before;
+        }
+        return position > start ? fallback : position;
+    }
+
+    private void addDirtyRange(int start, int end) {
+        dirtyRanges.add(new int[]{start, end});
+        mergeRanges(dirtyRanges);
+    }
+
+    /**
+     * Sorts the {@param ranges} and merges overlapping or touching ones.
+     */
+    private static void mergeRanges(@NonNull List<int[]> ranges) {
+        ranges.sort(comparingInt(range -> range[0]));
+        for (int i = ranges.size() - 1; i > 0; i--) {
+            final var previous = ranges.get(i - 1);
+            final var current = ranges.get(i);
+            if (current[0] <= previous[1]) {
+                previous[1] = Math.max(previous[1], current[1]);
+                ranges.remove(i);
+            }
+        }
+    }
+
+    @Override
+    public void afterTextChanged(Editable s) {
+        render(s);
+    }
+
+    @Override
+    public void onStateChanged(@NonNull LifecycleOwner source, @NonNull Lifecycle.Event event) {
+        switch (event) {
+            case ON_PAUSE, ON_DESTROY -> cancel();
+            case ON_RESUME -> {
+                final var text = editText.getText();
+                if (text != null && !dirtyRanges.isEmpty()) {
+                    render(text);
+                }
+            }
+        }
+    }
+
+    /**
+     * Cancels the pending rendering and discards its result. The changed ranges are kept, so they get highlighted with the next rendering.
+     */
+    @MainThread
+    public void cancel() {
+        generation++;
+        if (pendingRender != null) {
+            pendingRender.cancel(false);
+            pendingRender = null;
+        }
+    }
+
+    /**
+     * Documents exceeding {@param threshold} characters are only highlighted around the visible lines.
+     * Pass {@link Integer#MAX_VALUE} to always highlight the whole document.
+     */
+    public void setViewportHighlightingThreshold(int threshold) {
+        this.viewportHighlightingThreshold = threshold;
+    }
+
+    /**
+     * {@param progressListener} gets called on the main thread with the progress between <code>0</code> and <code>1</code> while large changes like pastes are highlighted in the background.
+     * <code>1</code> is reported after the highlighting has been applied at once.
+     */
+    public void setProgressListener(@Nullable Consumer<Float> progressListener) {
+        this.progressListener = progressListener;
+    }
+
+    /**
+     * {@param listener} gets called on the main thread each time the highlighting of changes has been applied.
+     */
+    public void setOnHighlightAppliedListener(@Nullable Runnable listener) {
+        this.onHighlightAppliedListener = listener;
+    }
+
+    /**
+     * Must be called when the visible part of the {@link EditText} changed, e.g. by scrolling, to extend the highlighting lazily to the newly visible lines.
+     */
+    @MainThread
+    public void onViewportChanged() {
+        final var text = editText.getText();
+        if (text == null || text.length() < viewportHighlightingThreshold) {
+            return;
+        }
+
+        final int[] visibleRange = MarkdownUtil.getVisibleRange(editText, editText.getHeight());
+        if (windowStart >= 0 && visibleRange[0] >= windowStart && visibleRange[1] <= windowEnd) {
+            return;
+        }
+
+        final int[] window = getRegion(text, getCodeFences(text), visibleRange[0], visibleRange[1], false);
+        windowStart = window[0];
+        windowEnd = window[1];
+        addDirtyRange(windowStart, windowEnd);
+        render(text);
+    }
+
+    @MainThread
+    private void render(@NonNull Editable s) {
+        final int key = ++generation;
+        @Nullable final int[] window;
+
+        if (s.length() < viewportHighlightingThreshold) {
+            if (windowStart >= 0) {
+                // The highlighting outside of the previous window has been removed
+                addDirtyRange(0, s.length());
+                windowStart = -1;
+                windowEnd = -1;
+            }
+            window = null;
+        } else {
+            if (windowStart < 0) {
+                final int[] visibleRange = MarkdownUtil.getVisibleRange(editText, editText.getHeight());
+                final int[] initialWindow = getRegion(s, getCodeFences(s), visibleRange[0], visibleRange[1], false);
+                windowStart = initialWindow[0];
+                windowEnd = initialWindow[1];
+            }
+            window = new int[]{Math.min(windowStart, s.length()), Math.min(windowEnd, s.length())};
+        }
+
+        final var regions = new ArrayList<int[]>(dirtyRanges.size());
+        for (final var dirtyRange : dirtyRanges) {
+            final int[] region = getRegion(s, getCodeFences(s), dirtyRange[0], dirtyRange[1], codeFenceChanged);
+            if (window != null) {
+                region[0] = Math.max(region[0], window[0]);
+                region[1] = Math.max(region[0], Math.min(region[1], window[1]));
+            }
+            regions.add(region);
+        }
+        mergeRanges(regions);
+
+        final var snapshots = new ArrayList<Spanned>(regions.size());
+        for (final var region : regions) {
+            snapshots.add(new SpannableStringBuilder(s, region[0], region[1]));
+        }
+
+        if (pendingRender != null) {
+            // Might already be running, in this case its result will be discarded by the generation check
+            pendingRender.cancel(false);
+        }
+
+        final var progressListener = this.progressListener;
+        pendingRender = executor.submit(() -> {
+            int total = 0;
+            for (final var snapshot : snapshots) {
+                total += snapshot.length();
+            }
+            final boolean reportProgress = progressListener != null && total >= BULK_HIGHLIGHTING_THRESHOLD;
+
+            final var chunks = new ArrayList<RenderedChunk>();
+            int processed = 0;
+            for (int i = 0; i < snapshots.size(); i++) {
+                final var snapshot = snapshots.get(i);
+                final int offset = regions.get(i)[0];
+                for (final var range : getChunks(snapshot, CHUNK_LENGTH)) {
+                    if (key != generation) {
+                        return;
+                    }
+                    final var chunk = new SpannableStringBuilder(snapshot, range[0], range[1]);
+                    final var chunkSpans = getSpans(chunk);
+                    editor.preRender(chunk, result -> chunks.add(new RenderedChunk(offset + range[0], chunkSpans, result.resultEditable())));
+
+                    processed += range[1] - range[0];
+                    if (reportProgress && processed < total) {
+                        final float progress = (float) processed / total;
+                        editText.post(() -> {
+                            if (key == generation) {
+                                progressListener.accept(progress);
+                            }
+                        });
+                    }
+                }
+            }
+
+            editText.post(() -> {
+                if (key == generation) {
+                    final var editable = editText.getText();
+                    if (editable != null) {
+                        for (final var chunk : chunks) {
+                            apply(editable, chunk.offset(), chunk.snapshotSpans(), chunk.rendered());
+                        }
+                        if (window != null) {
+                            removeHighlightingOutside(editable, window);
+                        }
+                    }
+                    dirtyRanges.clear();
+                    codeFenceChanged = false;
+                    if (onHighlightAppliedListener != null) {
+                        onHighlightAppliedListener.run();
+                    }
+                    if (reportProgress) {
+                        progressListener.accept(1f);
+                    }
+                }
+            });
+        });
+    }
+
+    /**
+     * Removes the spans which have not been reused by the pre-rendering, adds the new ones and moves the reused ones to their rendered position, translated by {@param offset}.
+     */
+    @MainThread
+    private void apply(@NonNull Editable editable, int offset, @NonNull Set<Object> snapshotSpans, @NonNull Spanned rendered) {
+        final var renderedSpans = getSpans(rendered);
+        for (final var span : snapshotSpans) {
+            if (!renderedSpans.contains(span)) {
+                editable.removeSpan(span);
+            }
+        }
+        for (final var span : renderedSpans) {
+            final int start = offset + rendered.getSpanStart(span);
+            final int end = offset + rendered.getSpanEnd(span);
+            final int flags = rendered.getSpanFlags(span);
+            if (!snapshotSpans.contains(span)) {
+                editable.setSpan(span, start, end, flags);
+                highlightSpanTypes.add(span.getClass());
+            } else {
+                final int currentStart = editable.getSpanStart(span);
+                final int currentEnd = editable.getSpanEnd(span);
+                // Spans reaching beyond the region have been cut off in the snapshot and must keep their range
+                final boolean withinRegion = currentStart >= offset && currentEnd <= offset + rendered.length();
+                if (withinRegion && (currentStart != start || currentEnd != end || editable.getSpanFlags(span) != flags)) {
+                    editable.setSpan(span, start, end, flags);
+                }
+            }
+        }
+    }
+
+    @MainThread
+    private void removeHighlightingOutside(@NonNull Editable editable, @NonNull int[] window) {
+        for (final var type : highlightSpanTypes) {
+            for (final var span : editable.getSpans(0, window[0], type)) {
+                if (editable.getSpanEnd(span) <= window[0]) {
+                    editable.removeSpan(span);
+                }
+            }
+            for (final var span : editable.getSpans(window[1], editable.length(), type)) {
+                if (editable.getSpanStart(span) >= window[1]) {
+                    editable.removeSpan(span);
+                }
+            }
+        }
+    }
+
+    @NonNull
+    private static Set<Object> getSpans(@NonNull Spanned spanned) {
+        final var spans = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (final var span : spanned.getSpans(0, spanned.length(), Object.class)) {
+            if (!(span instanceof NoCopySpan)) {
+                spans.add(span);
+            }
+        }
+        return spans;
+    }
+
+    /**
+     * @return start and end of the region which needs to be pre-rendered for the dirty range from {@param dirtyStart} to {@param dirtyEnd}.
+     * A negative {@param dirtyStart} means that everything is dirty.
+     */
+    @VisibleForTesting
+    @NonNull
+    static int[] getRegion(@NonNull CharSequence s, @NonNull CodeFenceIndex codeFences, int dirtyStart, int dirtyEnd, boolean codeFenceChanged) {
+        final int length = s.length();
+        if (dirtyStart < 0) {
+            return new int[]{0, length};
+        }
+
+        final int start = getStartOfParagraph(s, Math.min(dirtyStart, length));
+        final int end = codeFenceChanged ? length : getEndOfParagraph(s, Math.min(dirtyEnd, length));
+        return codeFences.includeCodeBlocks(start, end, length);
+    }
+
+    /**
+     * Splits {@param s} into chunks of at least {@param chunkLength} characters.
+     * Chunks end only after blank lines outside of fenced code blocks, so each of them can be pre-rendered on its own.
+     */
+    @VisibleForTesting
+    @NonNull
+    static List<int[]> getChunks(@NonNull CharSequence s, int chunkLength) {
+        final int length = s.length();
+        if (length <= chunkLength) {
+            return Collections.singletonList(new int[]{0, length});
+        }
+
+        final var chunks = new ArrayList<int[]>();
+        int chunkStart = 0;
+        @Nullable CodeFenceIndex.Fence openingFence = null;
+        int lineStart = 0;
+        while (lineStart < length) {
+            final int lineEnd = getEndOfLine(s, lineStart);
+            final var fence = CodeFenceIndex.parse(s, lineStart, lineEnd);
+            if (fence != null) {
+                if (openingFence == null) {
+                    openingFence = fence;
+                } else if (openingFence.isClosedBy(fence)) {
+                    openingFence = null;
+                }
+            } else if (openingFence == null && lineEnd - chunkStart >= chunkLength && isBlank(s, lineStart, lineEnd) && lineEnd < length) {
+                chunks.add(new int[]{chunkStart, lineEnd + 1});
+                chunkStart = lineEnd + 1;
+            }
+            lineStart = lineEnd + 1;
+        }
+        if (chunkStart < length) {
+            chunks.add(new int[]{chunkStart, length});
+        }
+        return chunks;
+    }
+
+    private static int getStartOfParagraph(@NonNull CharSequence s, int position) {
+        int start = getStartOfLine(s, position);
+        while (start > 0) {
+            final int previousLineStart = getStartOfLine(s, start - 1);
+            if (isBlank(s, previousLineStart, start - 1)) {
+                break;
+            }
+            start = previousLineStart;
+        }
+        return start;
+    }
+
+    private static int getEndOfParagraph(@NonNull CharSequence s, int position) {
+        int end = getEndOfLine(s, position);
+        while (end < s.length()) {
+            final int nextLineEnd = getEndOfLine(s, end + 1);
+            if (isBlank(s, end + 1, nextLineEnd)) {
+                break;
+            }
+            end = nextLineEnd;
+        }
+        return end;
+    }
+
+    private static boolean isBlank(@NonNull CharSequence s, int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (!Character.isWhitespace(s.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private record RenderedChunk(int offset, @NonNull Set<Object> snapshotSpans, @NonNull Spanned rendered) {
+    }
+}
@@ -5,6 +5,11 @@ import android.text.TextWatcher;
 
 import androidx.annotation.NonNull;
 
+/**
+ * @deprecated The watchers of this package are {@link TextWatcherStage}s which get chained by the {@link CombinedTextWatcher}.
+ * Implement {@link TextWatcherStage} instead, or use {@link #of(TextWatcherStage, TextWatcher)} to put a stage in front of an existing {@link TextWatcher}.
+ */
+@Deprecated
 abstract public class InterceptorTextWatcher implements TextWatcher {
 
     @NonNull
@@ -14,6 +19,32 @@ abstract public class InterceptorTextWatcher implements TextWatcher {
         this.originalWatcher = originalWatcher;
     }
 
+    /**
+     * Intercepts the changes for {@param originalWatcher} like the former constructors of the watchers of this package did,
+     * e.g. <code>new LowerIndentionTextWatcher(originalWatcher, editText)</code> becomes
+     * <code>InterceptorTextWatcher.of(new LowerIndentionTextWatcher(editText), originalWatcher)</code>.
+     *
+     * @deprecated Add the {@link TextWatcherStage} to a {@link CombinedTextWatcher} instead.
+     */
+    @Deprecated
+    @NonNull
+    public static TextWatcher of(@NonNull TextWatcherStage stage, @NonNull TextWatcher originalWatcher) {
+        return new InterceptorTextWatcher(originalWatcher) {
+            @Override
+            public void onTextChanged(CharSequence s, int start, int before, int count) {
+                stage.onTextChanged(s, start, before, count, () -> LineContext.of(s, start));
+                super.onTextChanged(s, start, before, count);
+            }
+
+            @Override
+            public void afterTextChanged(Editable s) {
+                if (!stage.afterTextChanged(s)) {
+                    super.afterTextChanged(s);
+                }
+            }
+        };
+    }
+
     @Override
     public void beforeTextChanged(CharSequence s, int start, int count, int after) {
         this.originalWatcher.beforeTextChanged(s, start, count, after);
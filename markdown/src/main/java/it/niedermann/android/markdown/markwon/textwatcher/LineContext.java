@@ -0,0 +1,74 @@
+package it.niedermann.android.markdown.markwon.textwatcher;
+
+import static it.niedermann.android.markdown.MarkdownUtil.getEndOfLine;
+import static it.niedermann.android.markdown.MarkdownUtil.getOrderedListNumber;
+import static it.niedermann.android.markdown.MarkdownUtil.getStartOfLine;
+import static it.niedermann.android.markdown.MarkdownUtil.lineStartsWithCheckbox;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import it.niedermann.android.markdown.model.EListType;
+
+/**
+ * Everything the stages of the {@link CombinedTextWatcher} need to know about the line a change happened in, analyzed once per change.
+ *
+ * @param lineStart          offset of the first character of the line
+ * @param lineEnd            offset of the line break or the end of the content
+ * @param line               the content of the line without the line break
+ * @param indention          the leading whitespace of the {@param line}
+ * @param trimmedLine        the {@param line} without leading and trailing whitespace
+ * @param listType           the type of the list the {@param line} starts with, also if it consists only of the list symbol
+ * @param checkbox           whether the {@param line} starts with a checkbox of the {@param listType}
+ * @param orderedListNumber  the number of the ordered list item the {@param line} starts with
+ */
+public record LineContext(
+        int lineStart,
+        int lineEnd,
+        @NonNull String line,
+        @NonNull String indention,
+        @NonNull String trimmedLine,
+        @Nullable EListType listType,
+        boolean checkbox,
+        @Nullable Integer orderedListNumber
+) {
+
+    @NonNull
+    public static LineContext of(@NonNull CharSequence s, int position) {
+        final int lineStart = getStartOfLine(s, position);
+        final int lineEnd = getEndOfLine(s, position);
+        final String line = s.subSequence(lineStart, lineEnd).toString();
+
+        int indentionEnd = 0;
+        while (indentionEnd < line.length() && Character.isWhitespace(line.charAt(indentionEnd))) {
+            indentionEnd++;
+        }
+
+        final String trimmedLine = line.trim();
+        EListType listType = null;
+        for (final var candidate : EListType.values()) {
+            if (trimmedLine.equals(candidate.listSymbol) || trimmedLine.startsWith(candidate.listSymbolWithTrailingSpace)) {
+                listType = candidate;
+                break;
+            }
+        }
+
+        return new LineContext(
+                lineStart,
+                lineEnd,
+                line,
+                line.substring(0, indentionEnd),
+                trimmedLine,
+                listType,
+                listType != null && lineStartsWithCheckbox(trimmedLine, listType),
+                listType == null ? getOrderedListNumber(trimmedLine).orElse(null) : null
+        );
+    }
+
+    /**
+     * @return whether the {@link #line} has no content after its leading whitespace and the {@link #trimmedLine}
+     */
+    public boolean endsWithTrimmedLine() {
+        return indention.length() + trimmedLine.length() == line.length();
+    }
+}
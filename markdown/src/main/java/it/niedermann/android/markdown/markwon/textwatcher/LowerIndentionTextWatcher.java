@@ -1,83 +1,69 @@
 package it.niedermann.android.markdown.markwon.textwatcher;
 
-import static it.niedermann.android.markdown.MarkdownUtil.getEndOfLine;
-import static it.niedermann.android.markdown.MarkdownUtil.getStartOfLine;
-
 import android.text.Editable;
-import android.text.TextWatcher;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.function.Supplier;
 
 import it.niedermann.android.markdown.markwon.MarkwonMarkdownEditor;
-import it.niedermann.android.markdown.model.EListType;
 
 /**
  * Automatically lowers indention when pressing <kbd>Backspace</kbd> on lists and check lists
  */
-public class LowerIndentionTextWatcher extends InterceptorTextWatcher {
+public class LowerIndentionTextWatcher implements TextWatcherStage {
 
     @NonNull
     private final MarkwonMarkdownEditor editText;
 
-    private boolean backspacePressed = false;
+    /**
+     * The line in which <kbd>Backspace</kbd> has been pressed or <code>null</code>
+     */
+    @Nullable
+    private LineContext backspaceLine;
     private int cursor = 0;
 
-    public LowerIndentionTextWatcher(@NonNull TextWatcher originalWatcher, @NonNull MarkwonMarkdownEditor editText) {
-        super(originalWatcher);
+    public LowerIndentionTextWatcher(@NonNull MarkwonMarkdownEditor editText) {
         this.editText = editText;
     }
 
     @Override
-    public void onTextChanged(CharSequence s, int start, int before, int count) {
+    public void onTextChanged(@NonNull CharSequence s, int start, int before, int count, @NonNull Supplier<LineContext> lineContext) {
         if (count == 0 && before == 1) {
             if (editText.getSelectionStart() == editText.getSelectionEnd()) {
-                backspacePressed = true;
+                backspaceLine = lineContext.get();
                 cursor = start;
             }
         }
-        originalWatcher.onTextChanged(s, start, before, count);
     }
 
     @Override
-    public void afterTextChanged(Editable editable) {
-        if (backspacePressed) {
-            if (!handleBackspace(editable, cursor)) {
-                originalWatcher.afterTextChanged(editable);
-            }
-            backspacePressed = false;
-        } else {
-            originalWatcher.afterTextChanged(editable);
-        }
-        editText.setMarkdownStringModel(editable);
+    public boolean afterTextChanged(@NonNull Editable editable) {
+        final var line = backspaceLine;
+        backspaceLine = null;
+        return line != null && handleBackspace(editable, line, cursor);
     }
 
-    private boolean handleBackspace(@NonNull Editable editable, int cursor) {
-        final int lineStart = getStartOfLine(editable, cursor);
-        final int lineEnd = getEndOfLine(editable, cursor);
-
+    private boolean handleBackspace(@NonNull Editable editable, @NonNull LineContext line, int cursor) {
         // The cursor must be at the end of the line to automatically continue
-        if (cursor != lineEnd) {
+        if (cursor != line.lineEnd()) {
             return false;
         }
 
-        final String line = editable.subSequence(lineStart, lineEnd).toString();
-        final String trimmedLine = line.trim();
-
         // There must be no content in this list item to automatically continue
-        if ((line.indexOf(trimmedLine) + trimmedLine.length()) < line.length()) {
+        if (!line.endsWithTrimmedLine()) {
             return false;
         }
 
-        for (final var listType : EListType.values()) {
-            if (listType.listSymbol.equals(trimmedLine)) {
-                if (trimmedLine.length() == EListType.DASH.listSymbol.length()) {
-                    return lowerIndention(editable, line, lineStart, lineEnd);
-                }
-            } else if (listType.checkboxUnchecked.equals(trimmedLine) || listType.checkboxChecked.equals(trimmedLine)) {
-                if (trimmedLine.length() == EListType.DASH.checkboxUnchecked.length()) {
-                    return lowerIndention(editable, line, lineStart, lineEnd);
-                }
-            }
+        final var listType = line.listType();
+        if (listType == null) {
+            return false;
+        }
+
+        final String trimmedLine = line.trimmedLine();
+        if (listType.listSymbol.equals(trimmedLine) || listType.checkboxUnchecked.equals(trimmedLine) || listType.checkboxChecked.equals(trimmedLine)) {
+            return lowerIndention(editable, line.line(), line.lineStart(), line.lineEnd());
         }
         return false;
     }
@@ -1,63 +1,275 @@
 package it.niedermann.android.markdown.markwon.textwatcher;
 
 import android.text.Editable;
+import android.text.Spannable;
 import android.text.TextUtils;
-import android.text.TextWatcher;
 import android.util.TypedValue;
 
 import androidx.annotation.ColorInt;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
+
 import it.niedermann.android.markdown.MarkdownUtil;
+import it.niedermann.android.markdown.ThemeUtils;
 import it.niedermann.android.markdown.markwon.MarkwonMarkdownEditor;
 import it.niedermann.android.markdown.model.SearchSpan;
 
-public class SearchHighlightTextWatcher extends InterceptorTextWatcher {
+/**
+ * Highlights all matches of the search text, the {@link #current} one with the primary color.
+ * <p>
+ * After a typed change, only the region around the change, widened by the length of the search text, is searched again. Matches outside of it are kept.
+ * The current match sticks to its occurrence, its index gets adjusted by the number of matches added or removed before it and reported to the {@link #setCurrentChangedListener(Consumer) listener}.
+ */
+public class SearchHighlightTextWatcher implements TextWatcherStage {
 
     private final MarkwonMarkdownEditor editText;
     @Nullable
     private CharSequence searchText;
     @Nullable
+    private Pattern searchPattern;
+    /**
+     * Index of the current match, starting at <code>1</code>. If <code>null</code>, all matches are highlighted as current.
+     */
+    @Nullable
     private Integer current;
+    @Nullable
+    private SearchSpan currentSpan;
+    @Nullable
+    private Consumer<Integer> currentChangedListener;
+    @ColorInt
+    private int currentBackground;
+    @ColorInt
+    private int currentForeground;
+    @ColorInt
+    private int otherBackground;
     @ColorInt
-    private int color;
+    private int otherForeground;
+    /**
+     * Range changed since the last search or <code>-1</code> if the whole content needs to be searched
+     */
+    private int dirtyStart = -1;
+    private int dirtyEnd = -1;
 
-    public SearchHighlightTextWatcher(@NonNull TextWatcher originalWatcher, @NonNull MarkwonMarkdownEditor editText) {
-        super(originalWatcher);
+    public SearchHighlightTextWatcher(@NonNull MarkwonMarkdownEditor editText) {
         this.editText = editText;
         final var context = editText.getContext();
         final var typedValue = new TypedValue();
         final var theme = context.getTheme();
         theme.resolveAttribute(androidx.appcompat.R.attr.colorPrimary, typedValue, true);
-        this.color = typedValue.data;
+        updateColors(typedValue.data);
     }
 
     public void setSearchText(@Nullable CharSequence searchText, @Nullable Integer current) {
         this.current = current;
         if (TextUtils.isEmpty(searchText)) {
             this.searchText = null;
+            this.searchPattern = null;
+            this.currentSpan = null;
             final var text = editText.getText();
             if (text != null) {
                 MarkdownUtil.removeSpans(text, SearchSpan.class);
             }
         } else {
             this.searchText = searchText;
-            afterTextChanged(editText.getText());
+            this.searchPattern = Pattern.compile(searchText.toString(), Pattern.CASE_INSENSITIVE | Pattern.LITERAL);
+            invalidate();
         }
     }
 
+    /**
+     * @param listener receives the adjusted index of the current match, starting at <code>1</code>, whenever a change of the content moves it. Will remove previously set listeners.
+     */
+    public void setCurrentChangedListener(@Nullable Consumer<Integer> listener) {
+        this.currentChangedListener = listener;
+    }
+
     public void setSearchColor(@ColorInt int color) {
-        this.color = color;
-        afterTextChanged(editText.getText());
+        updateColors(color);
+        invalidate();
     }
 
+    private void updateColors(@ColorInt int color) {
+        final var context = editText.getContext();
+        final var util = ThemeUtils.Companion.of(color);
+        currentBackground = util.getPrimary(context);
+        currentForeground = util.getOnPrimary(context);
+        otherBackground = util.getSecondary(context);
+        otherForeground = util.getOnSecondary(context);
+    }
+
+    private void invalidate() {
+        dirtyStart = -1;
+        dirtyEnd = -1;
+        final var text = editText.getText();
+        if (text != null) {
+            afterTextChanged(text);
+        }
+    }
+
+    @Override
+    public void onTextChanged(@NonNull CharSequence s, int start, int before, int count, @NonNull Supplier<LineContext> lineContext) {
+        if (searchPattern == null) {
+            return;
+        }
+        if (dirtyStart < 0) {
+            dirtyStart = start;
+            dirtyEnd = start + count;
+        } else {
+            // Another change happened before the previous one has been searched, e.g. by continuing a list
+            dirtyEnd = dirtyEnd >= start + before ? dirtyEnd + count - before : Math.max(dirtyEnd, start);
+            dirtyStart = Math.min(dirtyStart, start);
+            dirtyEnd = Math.max(dirtyEnd, start + count);
+        }
+    }
+
+    /**
+     * Changes which have not been passed to {@link #onTextChanged(CharSequence, int, int, int, Supplier)}, e.g. while bypassing the interceptors, cause a search of the whole content.
+     */
     @Override
-    public void afterTextChanged(Editable s) {
-        originalWatcher.afterTextChanged(s);
-        if (searchText != null) {
-            MarkdownUtil.removeSpans(s, SearchSpan.class);
-            MarkdownUtil.searchAndColor(editText.getContext(), s, searchText, color, current);
+    public boolean afterTextChanged(@NonNull Editable s) {
+        if (searchPattern != null) {
+            if (dirtyStart < 0) {
+                searchAll(s);
+            } else {
+                searchAround(s, Math.min(dirtyStart, s.length()), Math.min(dirtyEnd, s.length()));
+            }
+        }
+        dirtyStart = -1;
+        dirtyEnd = -1;
+        return false;
+    }
+
+    private void searchAll(@NonNull Spannable s) {
+        MarkdownUtil.removeSpans(s, SearchSpan.class);
+        currentSpan = null;
+
+        final var matcher = searchPattern.matcher(s);
+        int i = 1;
+        while (matcher.find()) {
+            final var span = addSpan(s, matcher.start(), matcher.end(), current == null || i == current);
+            if (current != null && i == current) {
+                currentSpan = span;
+            }
+            i++;
         }
     }
+
+    private void searchAround(@NonNull Spannable s, int changeStart, int changeEnd) {
+        final int margin = searchText.length() - 1;
+        final int regionStart = Math.max(0, changeStart - margin);
+        final int regionEnd = Math.min(s.length(), changeEnd + margin);
+
+        // Position of the current occurrence. Matches starting before it determine the index of the current match.
+        // Without a current occurrence, e.g. because there are less matches than the index, the index stays and is looked up again afterwards.
+        final boolean currentMissing = current != null && currentSpan == null;
+        int anchor = -1;
+        boolean currentInRegion = false;
+        if (current != null && !currentMissing) {
+            anchor = s.getSpanStart(currentSpan);
+            if (anchor < 0) {
+                // Removed together with its text
+                anchor = changeStart;
+                currentInRegion = true;
+                currentSpan = null;
+            }
+        }
+
+        // Matches which are only partially inside of the region are searched again as well
+        int searchStart = regionStart;
+        int searchEnd = regionEnd;
+        int removedBefore = 0;
+        for (final var span : s.getSpans(regionStart, regionEnd, SearchSpan.class)) {
+            final int spanStart = s.getSpanStart(span);
+            final int spanEnd = s.getSpanEnd(span);
+            // Spans whose text has been removed completely might remain empty
+            if ((spanEnd > regionStart && spanStart < regionEnd) || spanStart == spanEnd) {
+                searchStart = Math.min(searchStart, spanStart);
+                searchEnd = Math.max(searchEnd, spanEnd);
+                if (span == currentSpan) {
+                    currentInRegion = true;
+                    currentSpan = null;
+                } else if (spanStart < anchor) {
+                    removedBefore++;
+                }
+                s.removeSpan(span);
+            }
+        }
+
+        int addedBefore = 0;
+        final var matcher = searchPattern.matcher(s).region(searchStart, searchEnd);
+        while (matcher.find()) {
+            final boolean isCurrent = current == null || (currentInRegion && currentSpan == null && matcher.start() >= anchor);
+            final var span = addSpan(s, matcher.start(), matcher.end(), isCurrent);
+            if (current != null) {
+                if (isCurrent) {
+                    currentSpan = span;
+                } else if (matcher.start() < anchor) {
+                    addedBefore++;
+                }
+            }
+        }
+
+        if (current != null) {
+            final int previous = current;
+            current = Math.max(1, current + addedBefore - removedBefore);
+            if (currentInRegion && currentSpan == null) {
+                // The current occurrence is gone, the next match after the region takes its place
+                currentSpan = highlightFirstSpanAfter(s, searchEnd);
+            }
+            if (currentMissing) {
+                currentSpan = highlightSpan(s, current);
+            }
+            if (current != previous && currentChangedListener != null) {
+                currentChangedListener.accept(current);
+            }
+        }
+    }
+
+    /**
+     * @return the match with the given {@param index}, starting at <code>1</code>, highlighted as current or <code>null</code> if there are less matches
+     */
+    @Nullable
+    private SearchSpan highlightSpan(@NonNull Spannable s, int index) {
+        final var spans = s.getSpans(0, s.length(), SearchSpan.class);
+        if (spans.length < index) {
+            return null;
+        }
+        Arrays.sort(spans, Comparator.comparingInt(s::getSpanStart));
+        final var span = spans[index - 1];
+        final int start = s.getSpanStart(span);
+        final int end = s.getSpanEnd(span);
+        s.removeSpan(span);
+        return addSpan(s, start, end, true);
+    }
+
+    @Nullable
+    private SearchSpan highlightFirstSpanAfter(@NonNull Spannable s, int position) {
+        int transition = Math.max(0, position - 1);
+        while ((transition = s.nextSpanTransition(transition, s.length(), SearchSpan.class)) < s.length()) {
+            for (final var span : s.getSpans(transition, transition, SearchSpan.class)) {
+                final int start = s.getSpanStart(span);
+                if (start == transition && start >= position) {
+                    final int end = s.getSpanEnd(span);
+                    s.removeSpan(span);
+                    return addSpan(s, start, end, true);
+                }
+            }
+        }
+        return null;
+    }
+
+    @NonNull
+    private SearchSpan addSpan(@NonNull Spannable s, int start, int end, boolean current) {
+        final var span = current
+                ? new SearchSpan(currentBackground, currentForeground)
+                : new SearchSpan(otherBackground, otherForeground);
+        s.setSpan(span, start, end, Spannable.SPAN_EXCLUSIVE_EXCLUSIVE);
+        return span;
+    }
 }
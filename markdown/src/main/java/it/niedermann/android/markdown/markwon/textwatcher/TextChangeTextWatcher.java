@@ -0,0 +1,50 @@
+package it.niedermann.android.markdown.markwon.textwatcher;
+
+import android.text.Editable;
+import android.text.TextWatcher;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.function.Consumer;
+
+import it.niedermann.android.markdown.model.TextChange;
+
+/**
+ * Reports each change of the content as a {@link TextChange}, so consumers do not need to diff the whole document.
+ */
+public class TextChangeTextWatcher implements TextWatcher {
+
+    private long revision = 0;
+    @Nullable
+    private Consumer<TextChange> listener;
+
+    public void setListener(@Nullable Consumer<TextChange> listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * @return the revision of the current content, which is the {@link TextChange#revision()} of the latest change
+     */
+    public long getRevision() {
+        return revision;
+    }
+
+    @Override
+    public void beforeTextChanged(CharSequence s, int start, int count, int after) {
+        // Nothing to do
+    }
+
+    @Override
+    public void onTextChanged(CharSequence s, int start, int before, int count) {
+        revision++;
+        if (listener != null) {
+            listener.accept(new TextChange(revision, start, before, s.subSequence(start, start + count).toString()));
+        }
+    }
+
+    @Override
+    public void afterTextChanged(Editable s) {
+        // Nothing to do
+    }
+}
@@ -0,0 +1,23 @@
+package it.niedermann.android.markdown.markwon.textwatcher;
+
+import android.text.Editable;
+
+import androidx.annotation.NonNull;
+
+import java.util.function.Supplier;
+
+/**
+ * Reacts to changes typed by the user as part of the {@link CombinedTextWatcher}.
+ */
+public interface TextWatcherStage {
+
+    /**
+     * @param lineContext analyzes the line at {@param start} on first access and is shared by all stages of the current change
+     */
+    void onTextChanged(@NonNull CharSequence s, int start, int before, int count, @NonNull Supplier<LineContext> lineContext);
+
+    /**
+     * @return whether this stage changed {@param s} again. The new change gets dispatched on its own, so the remaining stages are skipped for the current one.
+     */
+    boolean afterTextChanged(@NonNull Editable s);
+}
@@ -0,0 +1,277 @@
+package it.niedermann.android.markdown.markwon.textwatcher;
+
+import android.os.SystemClock;
+import android.text.Editable;
+import android.text.TextWatcher;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * Records the changes of the content as small deltas instead of snapshots of the whole document, so they can be undone and redone.
+ * <ul>
+ *     <li>Characters typed or deleted in a row are merged to one step, until a line break is typed or the user paused for {@link #BURST_TIMEOUT_MILLIS}.
+ *     This includes keyboards which replace the word they are composing with each keystroke.</li>
+ *     <li>All changes between {@link #beginGroup()} and {@link #endGroup()} are one step</li>
+ *     <li>The oldest steps are dropped as soon as the history exceeds its {@link #setBudget(long) budget}</li>
+ * </ul>
+ */
+public class UndoRedoTextWatcher implements TextWatcher {
+
+    public static final long DEFAULT_BUDGET_BYTES = 1024 * 1024;
+    private static final long BURST_TIMEOUT_MILLIS = 1_000;
+
+    @NonNull
+    private final Deque<Step> undoSteps = new ArrayDeque<>();
+    @NonNull
+    private final Deque<Step> redoSteps = new ArrayDeque<>();
+    private long budget = DEFAULT_BUDGET_BYTES;
+    private long usedBytes = 0;
+    private boolean recording = true;
+    private int groupDepth = 0;
+    @Nullable
+    private Step group;
+    @Nullable
+    private String removedText;
+
+    @Override
+    public void beforeTextChanged(CharSequence s, int start, int count, int after) {
+        // Copies only the characters which are going to be removed
+        removedText = recording ? s.subSequence(start, start + count).toString() : null;
+    }
+
+    @Override
+    public void onTextChanged(CharSequence s, int start, int before, int count) {
+        if (recording && removedText != null) {
+            record(new Edit(start, removedText, s.subSequence(start, start + count).toString()));
+        }
+        removedText = null;
+    }
+
+    @Override
+    public void afterTextChanged(Editable s) {
+        // Nothing to do
+    }
+
+    /**
+     * The history is limited by the estimated memory its steps use instead of their count.
+     */
+    public void setBudget(long bytes) {
+        if (bytes < 0) {
+            throw new IllegalArgumentException("Budget must not be negative, but was " + bytes);
+        }
+        this.budget = bytes;
+        trimToBudget();
+    }
+
+    /**
+     * Changes while not recording, e.g. replacing the whole document, are not part of the history and should be followed by {@link #clear()}.
+     */
+    public void setRecording(boolean recording) {
+        this.recording = recording;
+    }
+
+    public void clear() {
+        undoSteps.clear();
+        redoSteps.clear();
+        usedBytes = 0;
+        group = null;
+    }
+
+    /**
+     * All changes until the matching {@link #endGroup()} will be undone and redone as one step. Groups can be nested.
+     */
+    public void beginGroup() {
+        if (groupDepth++ == 0) {
+            group = null;
+        }
+    }
+
+    public void endGroup() {
+        if (groupDepth == 0) {
+            throw new IllegalStateException("endGroup() has been called without beginGroup()");
+        }
+        if (--groupDepth == 0) {
+            group = null;
+        }
+    }
+
+    public boolean canUndo() {
+        return !undoSteps.isEmpty();
+    }
+
+    public boolean canRedo() {
+        return !redoSteps.isEmpty();
+    }
+
+    /**
+     * Reverts the latest step in {@param editable}.
+     *
+     * @return the position of the cursor after undoing or <code>-1</code> if there was nothing to undo
+     */
+    public int undo(@NonNull Editable editable) {
+        final var step = undoSteps.pollLast();
+        if (step == null) {
+            return -1;
+        }
+
+        int cursor = -1;
+        for (int i = step.edits.size() - 1; i >= 0; i--) {
+            final var edit = step.edits.get(i);
+            replaceWithoutRecording(editable, edit.offset, edit.offset + edit.inserted.length(), edit.removed);
+            cursor = edit.offset + edit.removed.length();
+        }
+
+        step.burst = false;
+        redoSteps.addLast(step);
+        return cursor;
+    }
+
+    /**
+     * Applies the latest undone step to {@param editable} again.
+     *
+     * @return the position of the cursor after redoing or <code>-1</code> if there was nothing to redo
+     */
+    public int redo(@NonNull Editable editable) {
+        final var step = redoSteps.pollLast();
+        if (step == null) {
+            return -1;
+        }
+
+        int cursor = -1;
+        for (final var edit : step.edits) {
+            replaceWithoutRecording(editable, edit.offset, edit.offset + edit.removed.length(), edit.inserted);
+            cursor = edit.offset + edit.inserted.length();
+        }
+
+        undoSteps.addLast(step);
+        return cursor;
+    }
+
+    private void replaceWithoutRecording(@NonNull Editable editable, int start, int end, @NonNull String text) {
+        final boolean wasRecording = recording;
+        recording = false;
+        try {
+            editable.replace(start, end, text);
+        } finally {
+            recording = wasRecording;
+        }
+    }
+
+    private void record(@NonNull Edit edit) {
+        if (edit.removed.isEmpty() && edit.inserted.isEmpty()) {
+            return;
+        }
+
+        usedBytes -= redoSteps.stream().mapToLong(step -> step.bytes).sum();
+        redoSteps.clear();
+
+        final long now = SystemClock.uptimeMillis();
+        final var latest = undoSteps.peekLast();
+        final Step step;
+
+        if (groupDepth > 0 && group != null) {
+            step = group;
+            step.add(edit, now);
+        } else if (groupDepth == 0 && latest != null && latest.burst && now - latest.lastModified < BURST_TIMEOUT_MILLIS && latest.merge(edit, now)) {
+            step = latest;
+        } else {
+            step = new Step(groupDepth == 0 && edit.inserted.indexOf('\n') < 0);
+            step.add(edit, now);
+            undoSteps.addLast(step);
+            if (groupDepth > 0) {
+                group = step;
+            }
+        }
+
+        usedBytes += step.updateBytes();
+        trimToBudget();
+    }
+
+    private void trimToBudget() {
+        while (usedBytes > budget && !undoSteps.isEmpty() && undoSteps.peekFirst() != group) {
+            usedBytes -= undoSteps.pollFirst().bytes;
+        }
+    }
+
+    private record Edit(int offset, @NonNull String removed, @NonNull String inserted) {
+
+        private long estimateBytes() {
+            // Two bytes per char plus object overhead
+            return 2L * (removed.length() + inserted.length()) + 64;
+        }
+    }
+
+    private static class Step {
+
+        @NonNull
+        private final List<Edit> edits = new ArrayList<>(1);
+        /**
+         * Whether following changes may still be merged into this step
+         */
+        private boolean burst;
+        private long lastModified;
+        private long bytes = 0;
+
+        private Step(boolean burst) {
+            this.burst = burst;
+        }
+
+        private void add(@NonNull Edit edit, long now) {
+            edits.add(edit);
+            lastModified = now;
+        }
+
+        /**
+         * @return whether {@param edit} continues the typing or deleting of this step and has been merged into it
+         */
+        private boolean merge(@NonNull Edit edit, long now) {
+            final var last = edits.get(edits.size() - 1);
+            final Edit merged;
+
+            if (last.removed.isEmpty() && edit.removed.isEmpty() && edit.offset == last.offset + last.inserted.length()) {
+                // Typing
+                merged = new Edit(last.offset, "", last.inserted + edit.inserted);
+            } else if (edit.offset >= last.offset
+                    && edit.offset + edit.removed.length() == last.offset + last.inserted.length()
+                    && last.inserted.startsWith(edit.removed, edit.offset - last.offset)) {
+                // Replacing the end of the previous insertion, e.g. by a keyboard composing a word
+                merged = new Edit(last.offset, last.removed, last.inserted.substring(0, edit.offset - last.offset) + edit.inserted);
+            } else if (last.inserted.isEmpty() && edit.inserted.isEmpty() && edit.offset + edit.removed.length() == last.offset) {
+                // Backspace
+                merged = new Edit(edit.offset, edit.removed + last.removed, "");
+            } else if (last.inserted.isEmpty() && edit.inserted.isEmpty() && edit.offset == last.offset) {
+                // Delete
+                merged = new Edit(last.offset, last.removed + edit.removed, "");
+            } else {
+                return false;
+            }
+
+            edits.set(edits.size() - 1, merged);
+            lastModified = now;
+            if (edit.inserted.indexOf('\n') >= 0) {
+                burst = false;
+            }
+            return true;
+        }
+
+        /**
+         * Updates the estimation of the memory used by this step.
+         *
+         * @return the difference to the previous estimation
+         */
+        private long updateBytes() {
+            final long previousBytes = bytes;
+            bytes = 0;
+            for (final var edit : edits) {
+                bytes += edit.estimateBytes();
+            }
+            return bytes - previousBytes;
+        }
+    }
+}
@@ -0,0 +1,14 @@
+package it.niedermann.android.markdown.model;
+
+import androidx.annotation.NonNull;
+
+/**
+ * A heading of a rendered markdown document.
+ *
+ * @param level          from <code>1</code> to <code>6</code>
+ * @param text           the rendered text of the heading
+ * @param sourceOffset   start of the heading line in the markdown source or <code>-1</code> if it could not be determined
+ * @param renderedOffset start of the heading in the rendered text, suitable for {@link android.text.Layout#getLineForOffset(int)}
+ */
+public record OutlineEntry(int level, @NonNull String text, int sourceOffset, int renderedOffset) {
+}
@@ -0,0 +1,29 @@
+package it.niedermann.android.markdown.model;
+
+import androidx.annotation.NonNull;
+
+/**
+ * A single edit of a markdown document. Applying all {@link TextChange}s in the order of their {@link #revision()} to the initial content results in the current content.
+ *
+ * @param revision      increases by one with each change of the document
+ * @param offset        where the change happened
+ * @param removedLength count of characters which have been removed at {@link #offset()}
+ * @param insertedText  which has been inserted at {@link #offset()} after removing {@link #removedLength()} characters
+ */
+public record TextChange(long revision, int offset, int removedLength, @NonNull String insertedText) {
+
+    /**
+     * @param position     in the content before this change
+     * @param preferBehind whether a {@param position} within the removed characters should be mapped behind the inserted text instead of in front of it
+     * @return the corresponding position in the content after this change
+     */
+    public int mapPosition(int position, boolean preferBehind) {
+        if (position <= offset) {
+            return position;
+        }
+        if (position >= offset + removedLength) {
+            return position - removedLength + insertedText.length();
+        }
+        return preferBehind ? offset + insertedText.length() : offset;
+    }
+}
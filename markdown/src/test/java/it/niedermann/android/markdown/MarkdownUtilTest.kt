@@ -1,19 +1,40 @@
 package it.niedermann.android.markdown
 
+import android.content.Context
 import android.graphics.Color
+import android.graphics.Rect
+import android.text.Layout
 import android.text.Editable
 import android.text.Spannable
 import android.text.SpannableStringBuilder
 import android.text.Spanned
 import android.text.style.ForegroundColorSpan
+import android.util.TypedValue
+import android.widget.TextView
+import androidx.test.core.app.ApplicationProvider
+import io.mockk.every
+import io.mockk.mockk
+import io.noties.prism4j.GrammarLocator
+import it.niedermann.android.markdown.markwon.MarkwonMarkdownViewer
 import it.niedermann.android.markdown.model.EListType
 import it.niedermann.android.markdown.model.SearchSpan
 import junit.framework.TestCase
+import org.commonmark.parser.Parser
+import org.commonmark.renderer.html.HtmlRenderer
 import org.junit.Assert.assertThrows
+import org.junit.Assume
 import org.junit.Test
 import org.junit.runner.RunWith
 import org.robolectric.RobolectricTestRunner
+import java.io.ByteArrayOutputStream
+import java.io.StringReader
+import java.io.Writer
+import java.lang.management.ManagementFactory
 import java.lang.reflect.InvocationTargetException
+import java.util.concurrent.CancellationException
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
 
 @Suppress("LocalVariableName")
 @RunWith(RobolectricTestRunner::class)
@@ -1132,4 +1153,197 @@ class MarkdownUtilTest : TestCase() {
             MarkdownUtil.removeMarkdown("2021-03-24 - Example text")
         )
     }
+
+    @Test
+    fun getVisibleRange() {
+        // Each line is 10 pixels high and contains 20 characters
+        val layout = mockk<Layout>()
+        every { layout.getLineForVertical(any()) } answers { firstArg<Int>() / 10 }
+        every { layout.getLineStart(any()) } answers { firstArg<Int>() * 20 }
+        every { layout.getLineEnd(any()) } answers { firstArg<Int>() * 20 + 20 }
+        val textView = mockk<TextView>()
+        every { textView.layout } returns layout
+        every { textView.totalPaddingTop } returns 5
+        every { textView.length() } returns 1_000
+        every { textView.getLocalVisibleRect(any()) } answers {
+            firstArg<Rect>().set(0, 105, 100, 305)
+            true
+        }
+
+        // Lines 10 to 30 are visible
+        assertEquals(listOf(200, 620), MarkdownUtil.getVisibleRange(textView, 0).toList())
+        assertEquals(listOf(100, 720), MarkdownUtil.getVisibleRange(textView, 50).toList())
+        // Clamped to the start and the length of the text
+        assertEquals(listOf(0, 1_000), MarkdownUtil.getVisibleRange(textView, 200).toList())
+
+        every { textView.getLocalVisibleRect(any()) } returns false
+        assertEquals(listOf(0, 0), MarkdownUtil.getVisibleRange(textView, 0).toList())
+
+        every { textView.layout } returns null
+        assertEquals(listOf(0, 0), MarkdownUtil.getVisibleRange(textView, 0).toList())
+    }
+
+    @Test
+    fun warmUp() {
+        val context = ApplicationProvider.getApplicationContext<Context>()
+        val future = MarkdownUtil.warmUp(context)
+
+        assertNull(future.get(30, TimeUnit.SECONDS))
+        assertTrue(future.isDone)
+        assertFalse(future.isCancelled)
+
+        val typedValue = TypedValue()
+        context.theme.resolveAttribute(androidx.appcompat.R.attr.colorPrimary, typedValue, true)
+        val themeUtilsCache = ThemeUtils::class.java.getDeclaredField("cache").let {
+            it.isAccessible = true
+            it.get(null) as Map<*, *>
+        }
+        assertTrue(themeUtilsCache.containsKey(typedValue.data))
+
+        val grammarLocator = MarkwonMarkdownViewer::class.java.getDeclaredField("grammarLocator").let {
+            it.isAccessible = true
+            it.get(null) as GrammarLocator
+        }
+        val loadedGrammars = grammarLocator.javaClass.getDeclaredField("grammars").let {
+            it.isAccessible = true
+            it.get(grammarLocator) as Map<*, *>
+        }
+        assertTrue(grammarLocator.languages().isNotEmpty())
+        assertTrue(loadedGrammars.keys.containsAll(grammarLocator.languages()))
+
+        assertEquals("Title", MarkdownUtil.removeMarkdown("# Title"))
+    }
+
+    @Test
+    fun exportHtml() {
+        //language=md
+        val section = """
+            # Heading
+
+            Some **bold** text
+            with a soft break.
+
+            - [ ] Open
+            - [x] Done
+
+            1. First
+
+            2. Second
+
+            ```
+            - [ ] No checkbox
+
+            # No heading
+            ```
+
+            > Quote
+
+            """.trimIndent()
+        val markdown = section.repeat(20)
+        val expected = HtmlRenderer.builder().softbreak("<br>").build()
+            .render(Parser.builder().build().parse(MarkdownUtil.replaceCheckboxesWithEmojis(markdown)))
+
+        val html = StringBuilder()
+        MarkdownUtil.exportHtml(StringReader(markdown), html, 100)
+        assertEquals(expected, html.toString())
+
+        val bytes = ByteArrayOutputStream()
+        MarkdownUtil.exportHtml(StringReader(markdown), bytes)
+        assertEquals(expected, bytes.toString(Charsets.UTF_8.name()))
+    }
+
+    @Test
+    fun exportHtml_longFencedCodeBlocks() {
+        val code = (1..30).joinToString("\n") { "val a$it = b < c && d > \"e\" // - [ ] no checkbox" }
+        val markdown = listOf(
+            "# Heading", "", "- [ ] Open", "",
+            "```kotlin extra info", code, "```", "",
+            "Text", "~~~", code, "~~~~", "",
+            "````", "```", code, "````", "",
+            "> Quote", "",
+            "~~~ sh", code
+        ).joinToString("\n")
+        val expected = HtmlRenderer.builder().softbreak("<br>").build()
+            .render(Parser.builder().build().parse(MarkdownUtil.replaceCheckboxesWithEmojis(markdown)))
+
+        for (chunkLength in listOf(1, 100, 1_000, Int.MAX_VALUE)) {
+            val html = StringBuilder()
+            MarkdownUtil.exportHtml(StringReader(markdown), html, chunkLength)
+            assertEquals("Chunk length $chunkLength", expected, html.toString())
+        }
+    }
+
+    /**
+     * Opt-in benchmark for exporting large documents as HTML, run with <code>-Dreplay.benchmark</code>
+     */
+    @Test
+    fun exportHtml_benchmark() {
+        Assume.assumeTrue(System.getProperty("replay.benchmark") != null)
+
+        val threadMXBean = ManagementFactory.getThreadMXBean() as com.sun.management.ThreadMXBean
+        val section = "## Heading\n\nSome **bold** text.\n\n- [ ] Task\n- [x] Done\n\n```kotlin\nval a = b < c\n```\n\n"
+        val longCodeBlock = "```\n" + "val a = b < c && d > e\n".repeat(20_000) + "```\n\n"
+
+        for (megabytes in listOf(1, 5)) {
+            val length = megabytes * 1024 * 1024
+            for ((name, document) in listOf(
+                "sections" to section.repeat(length / section.length),
+                "long code blocks" to section + longCodeBlock.repeat(length / longCodeBlock.length) + section
+            )) {
+                val allocatedBefore = threadMXBean.currentThreadAllocatedBytes
+                val start = System.nanoTime()
+                MarkdownUtil.exportHtml(StringReader(document), Writer.nullWriter())
+                val millis = (System.nanoTime() - start) / 1_000_000
+                val allocatedKiB = (threadMXBean.currentThreadAllocatedBytes - allocatedBefore) / 1024
+
+                println("Export of $megabytes MB $name: $millis ms, $allocatedKiB KiB allocated")
+            }
+        }
+    }
+
+    @Test
+    fun removeMarkdownBatch() {
+        val contents = (0 until 100).map { "# Title $it\n\n**Content** $it" }
+
+        val results = MarkdownUtil.removeMarkdownBatch(contents).get()
+
+        assertEquals(contents.size, results.size)
+        results.forEachIndexed { i, result -> assertEquals(MarkdownUtil.removeMarkdown(contents[i]), result) }
+        assertEquals(emptyList<String>(), MarkdownUtil.removeMarkdownBatch(emptyList()).get())
+    }
+
+    @Test
+    fun renderBatch_cancel() {
+        val started = CountDownLatch(1)
+        val release = CountDownLatch(1)
+        val rendered = AtomicInteger()
+        val rendering = AtomicInteger()
+
+        val future = MarkdownUtil.renderBatch(List(1_000) { "# Title $it" }) {
+            rendering.incrementAndGet()
+            started.countDown()
+            release.await()
+            rendered.incrementAndGet()
+            rendering.decrementAndGet()
+            MarkdownUtil.removeMarkdown(it)
+        }
+
+        // Rendering has started and every worker blocks in its first document when cancelling
+        assertTrue(started.await(10, TimeUnit.SECONDS))
+        future.cancel(true)
+        release.countDown()
+
+        assertTrue(future.isCancelled)
+        assertThrows(CancellationException::class.java) { future.get() }
+
+        val deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10)
+        while (rendering.get() > 0 && System.nanoTime() < deadline) {
+            Thread.sleep(1)
+        }
+
+        // Each worker finishes at most the document it already started, the remaining ones are skipped
+        assertEquals(0, rendering.get())
+        val workers = maxOf(1, Runtime.getRuntime().availableProcessors() - 1)
+        assertTrue(rendered.get() <= workers)
+    }
 }
@@ -13,6 +13,7 @@ import org.junit.Before
 import org.junit.Test
 import org.junit.runner.RunWith
 import org.robolectric.RobolectricTestRunner
+import java.util.concurrent.ExecutorService
 
 @RunWith(RobolectricTestRunner::class)
 class EditorStateNotifierTest : TestCase() {
@@ -34,11 +35,9 @@ class EditorStateNotifierTest : TestCase() {
 
         editorStateNotifier = EditorStateNotifier(
             listeners,
-            { MoreExecutors.newDirectExecutorService() },
-            { MoreExecutors.newDirectExecutorService() },
             MoreExecutors.newDirectExecutorService(),
             mockk<EditorState.Factory> {
-                every { build(any(), any(), any(), any(), any(), any(), any()) } returns editorStateMock
+                every { build(any(), any(), any(), any(), any(), any()) } returns editorStateMock
             }
         )
 
@@ -145,4 +144,32 @@ class EditorStateNotifierTest : TestCase() {
 
         verify(exactly = 2) { editorStateListenerMock.onEditorStateChanged(editorStateMock) }
     }
+
+    @Test
+    fun `notify should only deliver the latest pending state`() {
+        val queued = mutableListOf<Runnable>()
+        val worker = mockk<ExecutorService> {
+            every { execute(any()) } answers { queued.add(firstArg()) }
+        }
+        val latestState = mockk<EditorState>()
+        val notifier = EditorStateNotifier(
+            listeners,
+            worker,
+            mockk<EditorState.Factory> {
+                every { build(any(), any(), any(), any(), any(), 1) } returns editorStateMock
+                every { build(any(), any(), any(), any(), any(), 2) } returns latestState
+            }
+        )
+
+        val first = notifier.notify(ApplicationProvider.getApplicationContext(), true, Color.WHITE, SpannableString("foo"), 0, 1)
+        val second = notifier.notify(ApplicationProvider.getApplicationContext(), true, Color.WHITE, SpannableString("foo"), 0, 2)
+
+        assertEquals(1, queued.size)
+        queued.forEach { it.run() }
+
+        assertTrue(first.isDone)
+        assertTrue(second.isDone)
+        verify(exactly = 0) { editorStateListenerMock.onEditorStateChanged(editorStateMock) }
+        verify(exactly = 1) { editorStateListenerMock.onEditorStateChanged(latestState) }
+    }
 }
@@ -26,5 +26,20 @@ class ToggleCheckboxCaTest : CommandApplierTest(
             TestCase.InitialState("* [ ] Foo\nBar", 10, 13),
             TestCase.ExpectedResult("* [ ] Foo\n* [ ] Bar", 19)
         ),
+        TestCase(
+            "Add checkboxes to all selected lines except blank ones",
+            TestCase.InitialState("Foo\n\nBar", 0, 8),
+            TestCase.ExpectedResult("- [ ] Foo\n\n- [ ] Bar", 20)
+        ),
+        TestCase(
+            "Remove checkboxes from all selected lines",
+            TestCase.InitialState("- [x] Foo\n- [ ] Bar", 0, 19),
+            TestCase.ExpectedResult("Foo\nBar", 7)
+        ),
+        TestCase(
+            "Keep existing checkboxes when adding checkboxes to the other selected lines",
+            TestCase.InitialState("- [x] Foo\nBar", 0, 13),
+            TestCase.ExpectedResult("- [x] Foo\n- [ ] Bar", 19)
+        ),
     )
 )
@@ -0,0 +1,45 @@
+package it.niedermann.android.markdown.controller.applier
+
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+
+@RunWith(RobolectricTestRunner::class)
+class ToggleOrderedListCaTest : CommandApplierTest(
+    ToggleOrderedListCa(), listOf(
+        TestCase(
+            "Add number to empty content",
+            TestCase.InitialState("", 0, 0),
+            TestCase.ExpectedResult("1. ", 3)
+        ),
+        TestCase(
+            "Number all selected lines",
+            TestCase.InitialState("Foo\nBar\nBaz", 0, 11),
+            TestCase.ExpectedResult("1. Foo\n2. Bar\n3. Baz", 20)
+        ),
+        TestCase(
+            "Continue the list above and renumber the following items",
+            TestCase.InitialState("1. Foo\nBar\n2. Baz", 10, 10),
+            TestCase.ExpectedResult("1. Foo\n2. Bar\n3. Baz", 13)
+        ),
+        TestCase(
+            "Renumber only the following items at the same indention",
+            TestCase.InitialState("1. A\nB\n   1. sub\n2. C", 6, 6),
+            TestCase.ExpectedResult("1. A\n2. B\n   1. sub\n3. C", 9)
+        ),
+        TestCase(
+            "Continue the list above nested items",
+            TestCase.InitialState("1. A\n   1. sub\n   2. sub\nB", 26, 26),
+            TestCase.ExpectedResult("1. A\n   1. sub\n   2. sub\n2. B", 29)
+        ),
+        TestCase(
+            "Start a nested list without continuing its parent",
+            TestCase.InitialState("1. A\n   sub\n2. B", 11, 11),
+            TestCase.ExpectedResult("1. A\n   1. sub\n2. B", 14)
+        ),
+        TestCase(
+            "Remove numbers from all selected lines",
+            TestCase.InitialState("1. Foo\n2. Bar", 0, 13),
+            TestCase.ExpectedResult("Foo\nBar", 7)
+        ),
+    )
+)
@@ -0,0 +1,35 @@
+package it.niedermann.android.markdown.controller.applier
+
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+
+@RunWith(RobolectricTestRunner::class)
+class ToggleUnorderedListCaTest : CommandApplierTest(
+    ToggleUnorderedListCa(), listOf(
+        TestCase(
+            "Add list symbol to a single line",
+            TestCase.InitialState("Foo", 3, 3),
+            TestCase.ExpectedResult("- Foo", 5)
+        ),
+        TestCase(
+            "Remove list symbol from a line which is not the first one",
+            TestCase.InitialState("Foo\n- Bar", 9, 9),
+            TestCase.ExpectedResult("Foo\nBar", 7)
+        ),
+        TestCase(
+            "Keep the indention when removing the list symbol",
+            TestCase.InitialState("  - Foo", 7, 7),
+            TestCase.ExpectedResult("  Foo", 5)
+        ),
+        TestCase(
+            "Add list symbols to all selected lines",
+            TestCase.InitialState("Foo\nBar", 0, 7),
+            TestCase.ExpectedResult("- Foo\n- Bar", 11)
+        ),
+        TestCase(
+            "Remove list symbols from all selected lines",
+            TestCase.InitialState("* Foo\n* Bar", 0, 11),
+            TestCase.ExpectedResult("Foo\nBar", 7)
+        ),
+    )
+)
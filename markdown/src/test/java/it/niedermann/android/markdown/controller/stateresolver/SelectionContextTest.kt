@@ -0,0 +1,77 @@
+package it.niedermann.android.markdown.controller.stateresolver
+
+import android.text.SpannableStringBuilder
+import it.niedermann.android.markdown.model.EListType
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertThrows
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+
+@RunWith(RobolectricTestRunner::class)
+class SelectionContextTest {
+
+    @Test
+    fun of() {
+        val content = SpannableStringBuilder("Lorem\n- [ ] Ipsum\n1. Dolor\nSit [amet](https://example.com)")
+
+        SelectionContext.of(content, 9, 9).let {
+            assertFalse(it.multiline)
+            assertTrue(it.checkbox)
+            assertEquals(EListType.DASH, it.listType)
+            assertFalse(it.orderedList)
+            assertFalse(it.inLink)
+        }
+
+        SelectionContext.of(content, 20, 22).let {
+            assertFalse(it.multiline)
+            assertFalse(it.checkbox)
+            assertNull(it.listType)
+            assertTrue(it.orderedList)
+        }
+
+        assertTrue(SelectionContext.of(content, 32, 32).inLink)
+        assertTrue(SelectionContext.of(content, 2, 9).multiline)
+    }
+
+    @Test
+    fun of_multilineSelection() {
+        val content = SpannableStringBuilder("- [ ] Lorem\n\n- [x] Ipsum\n- Dolor\n1. Sit\n  2. Amet\n\n")
+
+        SelectionContext.of(content, 2, 16).let {
+            assertTrue(it.checkbox)
+            assertEquals(EListType.DASH, it.listType)
+            assertFalse(it.orderedList)
+        }
+
+        SelectionContext.of(content, 2, 30).let {
+            assertFalse(it.checkbox)
+            assertEquals(EListType.DASH, it.listType)
+        }
+
+        SelectionContext.of(content, 30, 38).let {
+            assertFalse(it.checkbox)
+            assertNull(it.listType)
+            assertFalse(it.orderedList)
+        }
+
+        assertTrue(SelectionContext.of(content, 36, 47).orderedList)
+
+        SelectionContext.of(content, 50, 51).let {
+            assertFalse(it.checkbox)
+            assertNull(it.listType)
+            assertFalse(it.orderedList)
+        }
+    }
+
+    @Test
+    fun of_invalidSelection() {
+        val content = SpannableStringBuilder("Lorem")
+
+        assertThrows(IndexOutOfBoundsException::class.java) { SelectionContext.of(content, 0, 6) }
+        assertThrows(IllegalArgumentException::class.java) { SelectionContext.of(content, 3, 2) }
+    }
+}
@@ -1,21 +1,27 @@
 package it.niedermann.android.markdown.markwon
 
 import android.content.Context
+import android.os.Looper
 import android.text.Spannable
 import androidx.test.core.app.ApplicationProvider
 import io.mockk.clearAllMocks
 import io.mockk.every
 import io.mockk.mockk
 import io.mockk.verify
+import it.niedermann.android.markdown.EditLatencyListener
+import it.niedermann.android.markdown.controller.Command
 import it.niedermann.android.markdown.controller.EditorStateListener
 import it.niedermann.android.markdown.controller.EditorStateNotifier
 import it.niedermann.android.markdown.controller.MarkdownController
 import it.niedermann.android.markdown.markwon.format.AbstractFormattingCallback
+import it.niedermann.android.markdown.model.TextChange
 import junit.framework.TestCase
 import org.junit.Before
 import org.junit.Test
 import org.junit.runner.RunWith
 import org.robolectric.RobolectricTestRunner
+import org.robolectric.Shadows.shadowOf
+import java.time.Duration
 import java.util.concurrent.CompletableFuture
 
 @RunWith(RobolectricTestRunner::class)
@@ -126,4 +132,180 @@ class MarkwonMarkdownEditorTest : TestCase() {
             )
         }
     }
+
+    @Test
+    fun `should hand an immutable snapshot of the content to the editor state worker`() {
+        editor.registerController(createControllerMock())
+        editor.setSelection(1)
+
+        val contents = mutableListOf<Spannable>()
+        verify {
+            editorStateNotifierMock.notify(
+                any(Context::class),
+                any(Boolean::class),
+                any(),
+                capture(contents),
+                any(),
+                any()
+            )
+        }
+        val content = contents.last()
+        assertNotSame(editor.text, content)
+
+        editor.text!!.append("bar")
+        assertEquals("foo", content.toString())
+    }
+
+    @Test
+    fun `should coalesce model updates of multiple edits`() {
+        val updates = mutableListOf<CharSequence>()
+        editor.setMarkdownStringChangedListener { updates.add(it) }
+
+        editor.text?.append("b")
+        editor.text?.append("a")
+        editor.text?.append("r")
+        assertEquals(0, updates.size)
+
+        shadowOf(Looper.getMainLooper()).idleFor(Duration.ofMillis(100))
+        assertEquals(listOf("foobar"), updates.map { it.toString() })
+    }
+
+    @Test
+    fun `should materialize the model lazily without observers`() {
+        editor.text?.append("bar")
+        shadowOf(Looper.getMainLooper()).idleFor(Duration.ofMillis(100))
+
+        assertEquals("foobar", editor.markdownString.value.toString())
+    }
+
+    @Test
+    fun `should reflect edits in the model right after the edit`() {
+        val updates = mutableListOf<CharSequence>()
+        editor.setMarkdownStringChangedListener { updates.add(it) }
+
+        editor.text?.append("bar")
+        assertEquals("foobar", editor.markdownString.value.toString())
+        assertEquals(listOf("foobar"), updates.map { it.toString() })
+
+        // The pending update has been published by reading the value
+        shadowOf(Looper.getMainLooper()).idleFor(Duration.ofMillis(100))
+        assertEquals(listOf("foobar"), updates.map { it.toString() })
+    }
+
+    @Test
+    fun `should publish debounced changes when being detached`() {
+        val updates = mutableListOf<CharSequence>()
+        editor.setMarkdownStringChangedListener { updates.add(it) }
+        editor.setMarkdownStringDebounceMillis(1_000)
+
+        editor.text?.append("bar")
+        editor.onViewDetachedFromWindow(editor)
+        assertEquals(listOf("foobar"), updates.map { it.toString() })
+
+        shadowOf(Looper.getMainLooper()).idleFor(Duration.ofSeconds(2))
+        assertEquals(listOf("foobar"), updates.map { it.toString() })
+    }
+
+    @Test
+    fun `should publish debounced changes of editors which are not attached`() {
+        val updates = mutableListOf<CharSequence>()
+        editor.setMarkdownStringChangedListener { updates.add(it) }
+        editor.setMarkdownStringDebounceMillis(1_000)
+
+        editor.text?.append("bar")
+        shadowOf(Looper.getMainLooper()).idleFor(Duration.ofMillis(500))
+        assertEquals(0, updates.size)
+
+        shadowOf(Looper.getMainLooper()).idleFor(Duration.ofMillis(600))
+        assertEquals(listOf("foobar"), updates.map { it.toString() })
+    }
+
+    @Test
+    fun `should emit compact text changes with increasing revisions`() {
+        val changes = mutableListOf<TextChange>()
+        editor.setTextChangeListener { changes.add(it) }
+
+        editor.text?.append("bar")
+        editor.text?.replace(0, 3, "qux")
+        editor.text?.delete(3, 6)
+
+        assertEquals(3, changes.size)
+        assertEquals(TextChange(changes[0].revision, 3, 0, "bar"), changes[0])
+        assertEquals(TextChange(changes[0].revision + 1, 0, 3, "qux"), changes[1])
+        assertEquals(TextChange(changes[0].revision + 2, 3, 3, ""), changes[2])
+    }
+
+    @Test
+    fun `should apply text changes and map the selection`() {
+        editor.setMarkdownString("Lorem Ipsum Dolor")
+        editor.setSelection(12, 17)
+
+        editor.applyTextChanges(listOf(
+            TextChange(0, 0, 5, "Foo"),
+            TextChange(0, 4, 0, "- "),
+            TextChange(0, 11, 1, "")
+        ))
+
+        assertEquals("Foo - IpsumDolor", editor.text.toString())
+        assertEquals(11, editor.selectionStart)
+        assertEquals(16, editor.selectionEnd)
+    }
+
+    @Test
+    fun `should not continue lists for applied text changes`() {
+        editor.setMarkdownString("- foo")
+        editor.setSelection(0)
+
+        editor.applyTextChanges(listOf(TextChange(0, 5, 0, "\n")))
+
+        assertEquals("- foo\n", editor.text.toString())
+        assertEquals(0, editor.selectionStart)
+    }
+
+    @Test
+    fun `should apply commands to the live content`() {
+        val text = editor.text
+        editor.setSelection(0, 3)
+
+        editor.executeCommand(Command.TOGGLE_BOLD)
+
+        assertEquals("**foo**", editor.text.toString())
+        assertSame(text, editor.text)
+    }
+
+    @Test
+    fun `should undo commands as one step`() {
+        editor.text?.append("bar")
+        editor.setSelection(0, 6)
+        editor.executeCommand(Command.TOGGLE_BOLD)
+        assertEquals("**foobar**", editor.text.toString())
+
+        assertTrue(editor.undo())
+        assertEquals("foobar", editor.text.toString())
+        assertTrue(editor.undo())
+        assertEquals("foo", editor.text.toString())
+        assertFalse(editor.undo())
+
+        assertTrue(editor.redo())
+        assertEquals("foobar", editor.text.toString())
+    }
+
+    @Test
+    fun `should report the latency of edits`() {
+        val stages = mutableListOf<Pair<EditLatencyListener.Stage, Int>>()
+        editor.setEditLatencyListener { stage, latencyNanos, documentLength ->
+            assertTrue(latencyNanos >= 0)
+            stages.add(stage to documentLength)
+        }
+        editor.setMarkdownStringChangedListener { }
+        editor.setSelection(3)
+
+        editor.text?.append("b")
+        editor.text?.append("ar")
+        shadowOf(Looper.getMainLooper()).idleFor(Duration.ofMillis(100))
+
+        assertTrue(stages.contains(EditLatencyListener.Stage.MODEL to 6))
+        assertTrue(stages.contains(EditLatencyListener.Stage.EDITOR_STATE to 6))
+        assertEquals(1, stages.count { it.first == EditLatencyListener.Stage.MODEL })
+    }
 }
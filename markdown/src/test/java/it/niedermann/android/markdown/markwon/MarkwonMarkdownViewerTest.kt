@@ -0,0 +1,86 @@
+package it.niedermann.android.markdown.markwon
+
+import android.graphics.Color
+import android.text.SpannableString
+import android.text.TextPaint
+import android.widget.TextView
+import androidx.test.core.app.ApplicationProvider
+import com.nextcloud.android.sso.model.SingleSignOnAccount
+import io.mockk.mockk
+import io.mockk.verify
+import it.niedermann.android.markdown.model.SearchSpan
+import junit.framework.TestCase
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import java.util.concurrent.ExecutorService
+
+@RunWith(RobolectricTestRunner::class)
+class MarkwonMarkdownViewerTest : TestCase() {
+
+    private lateinit var viewer: MarkwonMarkdownViewer
+    private lateinit var renderService: ExecutorService
+
+    @Before
+    fun setup() {
+        viewer = MarkwonMarkdownViewer(ApplicationProvider.getApplicationContext())
+        renderService = mockk(relaxed = true)
+        MarkwonMarkdownViewer::class.java.getDeclaredField("renderService").let {
+            it.isAccessible = true
+            it.set(viewer, renderService)
+        }
+        viewer.setText(SpannableString("foo bar foo"), TextView.BufferType.SPANNABLE)
+    }
+
+    @Test
+    fun `should recolor search spans in place when only the color changes`() {
+        viewer.setCurrentSingleSignOnAccount(null, Color.BLUE)
+        viewer.setSearchText("foo", 2)
+        verify(exactly = 1) { renderService.execute(any()) }
+
+        val oldSpans = getSearchSpans()
+        assertEquals(listOf(0 to 3, 8 to 11), oldSpans.map { it.second })
+
+        viewer.setCurrentSingleSignOnAccount(null, Color.RED)
+
+        val newSpans = getSearchSpans()
+        assertEquals(listOf(0 to 3, 8 to 11), newSpans.map { it.second })
+        for (i in oldSpans.indices) {
+            assertNotSame(oldSpans[i].first, newSpans[i].first)
+            assertTrue(getBackground(oldSpans[i].first) != getBackground(newSpans[i].first))
+        }
+        assertTrue("Current match must still be highlighted differently", getBackground(newSpans[0].first) != getBackground(newSpans[1].first))
+        verify(exactly = 1) { renderService.execute(any()) }
+    }
+
+    @Test
+    fun `should render again only when the account changes`() {
+        val account = SingleSignOnAccount("foo@example.com", "foo", "", "https://example.com", "")
+
+        viewer.setCurrentSingleSignOnAccount(null, Color.BLUE)
+        verify(exactly = 0) { renderService.execute(any()) }
+
+        viewer.setCurrentSingleSignOnAccount(account, Color.BLUE)
+        verify(exactly = 1) { renderService.execute(any()) }
+
+        viewer.setCurrentSingleSignOnAccount(SingleSignOnAccount("foo@example.com", "foo", "", "https://example.com", ""), Color.RED)
+        verify(exactly = 1) { renderService.execute(any()) }
+
+        viewer.setCurrentSingleSignOnAccount(null, Color.RED)
+        verify(exactly = 2) { renderService.execute(any()) }
+    }
+
+    private fun getSearchSpans(): List<Pair<SearchSpan, Pair<Int, Int>>> {
+        val spannable = viewer.text as SpannableString
+        return spannable.getSpans(0, spannable.length, SearchSpan::class.java)
+            .map { it to (spannable.getSpanStart(it) to spannable.getSpanEnd(it)) }
+            .sortedBy { it.second.first }
+    }
+
+    private fun getBackground(span: SearchSpan): Int {
+        val paint = TextPaint()
+        span.updateDrawState(paint)
+        return paint.bgColor
+    }
+}
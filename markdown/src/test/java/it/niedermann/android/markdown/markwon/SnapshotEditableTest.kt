@@ -0,0 +1,59 @@
+package it.niedermann.android.markdown.markwon
+
+import android.text.Editable
+import android.text.TextWatcher
+import androidx.test.core.app.ApplicationProvider
+import junit.framework.TestCase
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+
+@RunWith(RobolectricTestRunner::class)
+class SnapshotEditableTest : TestCase() {
+
+    @Test
+    fun `should reuse the snapshot until the text changes`() {
+        val editable = SnapshotEditable("Lorem")
+
+        val snapshot = editable.toString()
+        assertSame(snapshot, editable.toString())
+
+        editable.append(" Ipsum")
+        assertEquals("Lorem Ipsum", editable.toString())
+
+        editable.clearSpans()
+        editable.delete(0, 6)
+        assertEquals("Ipsum", editable.toString())
+    }
+
+    @Test
+    fun `should provide the current content to text watchers`() {
+        val editable = SnapshotEditable("Lorem")
+        val seen = mutableListOf<String>()
+        editable.setSpan(object : TextWatcher {
+            override fun beforeTextChanged(s: CharSequence, start: Int, count: Int, after: Int) {
+                seen.add(s.toString())
+            }
+
+            override fun onTextChanged(s: CharSequence, start: Int, before: Int, count: Int) {
+                seen.add(s.toString())
+            }
+
+            override fun afterTextChanged(s: Editable) {
+                seen.add(s.toString())
+            }
+        }, 0, editable.length, Editable.SPAN_INCLUSIVE_INCLUSIVE)
+
+        editable.append("!")
+
+        assertEquals(listOf("Lorem", "Lorem!", "Lorem!"), seen)
+    }
+
+    @Test
+    fun `should be used by the editor`() {
+        val editor = MarkwonMarkdownEditor(ApplicationProvider.getApplicationContext())
+        editor.setMarkdownString("Lorem")
+
+        assertTrue(editor.text is SnapshotEditable)
+    }
+}
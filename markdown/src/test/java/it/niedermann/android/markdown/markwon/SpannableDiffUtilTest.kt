@@ -0,0 +1,93 @@
+package it.niedermann.android.markdown.markwon
+
+import android.text.Selection
+import android.text.SpannableString
+import android.text.SpannableStringBuilder
+import android.text.Spanned
+import android.text.style.ForegroundColorSpan
+import android.text.style.URLSpan
+import junit.framework.TestCase
+import org.junit.Assert.assertThrows
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+
+@RunWith(RobolectricTestRunner::class)
+class SpannableDiffUtilTest : TestCase() {
+
+    @Test
+    fun diff_replacesOnlyChangedCharacters() {
+        val target = SpannableStringBuilder("Lorem Ipsum Dolor")
+        Selection.setSelection(target, 3)
+        val source = SpannableStringBuilder("Lorem Foo Dolor")
+
+        val changes = SpannableDiffUtil.diff(target, source)
+
+        assertEquals("Lorem Foo Dolor", target.toString())
+        assertEquals(0, changes.size)
+        assertEquals(3, Selection.getSelectionStart(target))
+    }
+
+    @Test
+    fun diff_keepsEquivalentSpans() {
+        val oldLink = URLSpan("https://nextcloud.com")
+        val target = SpannableStringBuilder("Lorem Ipsum")
+        target.setSpan(oldLink, 0, 5, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE)
+        val source = SpannableStringBuilder("Lorem Ipsum")
+        source.setSpan(URLSpan("https://nextcloud.com"), 0, 5, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE)
+
+        val changes = SpannableDiffUtil.diff(target, source)
+
+        assertEquals(0, changes.size)
+        assertSame(oldLink, target.getSpans(0, target.length, URLSpan::class.java).single())
+    }
+
+    @Test
+    fun diff_replacesChangedSpans() {
+        val oldLink = URLSpan("https://nextcloud.com")
+        val oldColor = ForegroundColorSpan(0)
+        val target = SpannableStringBuilder("Lorem Ipsum")
+        target.setSpan(oldLink, 0, 5, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE)
+        target.setSpan(oldColor, 6, 11, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE)
+        val newLink = URLSpan("https://example.com")
+        val newColor = ForegroundColorSpan(0)
+        val source = SpannableStringBuilder("Lorem Ipsum")
+        source.setSpan(newLink, 0, 5, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE)
+        source.setSpan(newColor, 6, 11, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE)
+
+        val changes = SpannableDiffUtil.diff(target, source)
+
+        assertEquals(4, changes.size)
+        assertEquals(setOf(oldLink, oldColor), changes.filterNot { it.addition }.map { it.span }.toSet())
+        assertEquals(setOf(newLink, newColor), changes.filter { it.addition }.map { it.span }.toSet())
+
+        changes.forEach { it.applyTo(target) }
+        assertSame(newLink, target.getSpans(0, target.length, URLSpan::class.java).single())
+        assertSame(newColor, target.getSpans(0, target.length, ForegroundColorSpan::class.java).single())
+    }
+
+    @Test
+    fun diffSpans_updatesSpannableInPlace() {
+        val oldLink = URLSpan("https://nextcloud.com")
+        val target = SpannableString("Lorem Ipsum")
+        target.setSpan(oldLink, 0, 5, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE)
+        val newColor = ForegroundColorSpan(0)
+        val source = SpannableStringBuilder("Lorem Ipsum")
+        source.setSpan(URLSpan("https://nextcloud.com"), 0, 5, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE)
+        source.setSpan(newColor, 6, 11, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE)
+
+        val changes = SpannableDiffUtil.diffSpans(target, source)
+
+        assertEquals(listOf(newColor), changes.map { it.span })
+        changes.forEach { it.applyTo(target) }
+        assertSame(oldLink, target.getSpans(0, target.length, URLSpan::class.java).single())
+        assertSame(newColor, target.getSpans(0, target.length, ForegroundColorSpan::class.java).single())
+    }
+
+    @Test
+    fun diffSpans_requiresSameLength() {
+        assertThrows(IllegalArgumentException::class.java) {
+            SpannableDiffUtil.diffSpans(SpannableString("Lorem"), SpannableStringBuilder("Lorem Ipsum"))
+        }
+    }
+}
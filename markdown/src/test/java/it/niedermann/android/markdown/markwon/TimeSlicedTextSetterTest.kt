@@ -0,0 +1,228 @@
+package it.niedermann.android.markdown.markwon
+
+import android.content.Context
+import android.os.Looper
+import android.text.Editable
+import android.text.Spannable
+import android.text.Spanned
+import android.text.style.URLSpan
+import android.widget.TextView
+import androidx.test.core.app.ApplicationProvider
+import io.mockk.every
+import io.mockk.mockkStatic
+import io.mockk.unmockkStatic
+import io.noties.markwon.AbstractMarkwonPlugin
+import io.noties.markwon.Markwon
+import io.noties.markwon.core.spans.StrongEmphasisSpan
+import it.niedermann.android.markdown.MarkdownUtil
+import junit.framework.TestCase
+import org.junit.After
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.Shadows.shadowOf
+import org.robolectric.shadows.ShadowChoreographer
+import java.time.Duration
+import java.util.concurrent.TimeUnit
+
+/**
+ * The clock advances by one millisecond each time it is read. The frame budget gets checked every 16 spans,
+ * so with a budget of <code>n</code> milliseconds exactly <code>16 * (n + 1)</code> spans are applied per frame.
+ * Each <code>afterSetText</code> hook advances the clock by ten milliseconds, which exhausts the budget.
+ */
+@RunWith(RobolectricTestRunner::class)
+class TimeSlicedTextSetterTest : TestCase() {
+
+    private val frameDelay = Duration.ofMillis(16)
+    private val markdownSource = "# Title\n\n" + (1..200).joinToString("\n\n") { "Paragraph **$it**" }
+
+    private lateinit var textView: TextView
+    private lateinit var setter: TimeSlicedTextSetter
+    private lateinit var markwon: Markwon
+    private var now = 0L
+    private val hookCalls = mutableListOf<String>()
+
+    private inner class RecordingPlugin(private val name: String) : AbstractMarkwonPlugin() {
+        override fun afterSetText(textView: TextView) {
+            hookCalls.add(name)
+            now += TimeUnit.MILLISECONDS.toNanos(10)
+        }
+    }
+
+    @Before
+    fun setup() {
+        val context = ApplicationProvider.getApplicationContext<Context>()
+        ShadowChoreographer.setFrameDelay(frameDelay)
+        textView = TextView(context)
+        markwon = Markwon.builder(context)
+            .usePlugin(RecordingPlugin("first"))
+            .usePlugin(RecordingPlugin("second"))
+            .build()
+        setter = TimeSlicedTextSetter(markwon) {
+            now.also { now += TimeUnit.MILLISECONDS.toNanos(1) }
+        }
+        setter.setFrameBudgetMillis(2)
+    }
+
+    @After
+    fun tearDown() {
+        unmockkStatic(MarkdownUtil::class)
+    }
+
+    @Test
+    fun `should apply visible spans first`() {
+        val markdown = markwon.toMarkdown(markdownSource)
+        val visibleStart = markdown.indexOf("Paragraph 100")
+        val visibleEnd = markdown.indexOf("Paragraph 103")
+        mockkStatic(MarkdownUtil::class)
+        every { MarkdownUtil.getVisibleRange(textView, any()) } returns intArrayOf(visibleStart, visibleEnd)
+
+        setter.setParsedMarkdown(textView, markdown, null)
+
+        val strongSpans = getStrongSpansInOrder(markdown)
+        for (i in 99..101) {
+            assertTrue("Visible paragraph ${i + 1} must be applied immediately", isApplied(strongSpans[i]))
+        }
+        // The budget allows 48 more spans, the ones right below the visible area come next
+        for (i in 102 until 102 + 48) {
+            assertTrue(isApplied(strongSpans[i]))
+        }
+        assertFalse(isApplied(strongSpans[102 + 48]))
+        assertFalse(isApplied(strongSpans.last()))
+        // Spans above the visible area follow after the ones below
+        assertFalse(isApplied(strongSpans[98]))
+        assertFalse(isApplied(strongSpans[0]))
+    }
+
+    @Test
+    fun `should respect the frame budget`() {
+        val markdown = markwon.toMarkdown(markdownSource)
+        val total = markdown.getSpans(0, markdown.length, Any::class.java).size
+        var onComplete = 0
+
+        setter.setParsedMarkdown(textView, markdown, { onComplete++ })
+
+        // Only the heading is visible, the spans of the 200 paragraphs are sliced
+        val visible = total - 200
+        val appliedPerFrame = mutableListOf(countAppliedSpans(markdown))
+        while (countAppliedSpans(markdown) < total) {
+            val before = countAppliedSpans(markdown)
+            nextFrame()
+            appliedPerFrame.add(countAppliedSpans(markdown) - before)
+        }
+        assertEquals(listOf(visible + 48, 48, 48, 48, 8), appliedPerFrame)
+
+        // Only one hook fits into the remaining budget of the last frame
+        assertEquals(listOf("first"), hookCalls)
+        assertEquals(0, onComplete)
+
+        nextFrame()
+        assertEquals(listOf("first", "second"), hookCalls)
+        assertEquals(1, onComplete)
+    }
+
+    @Test
+    fun `should apply more spans per frame with a bigger frame budget`() {
+        val markdown = markwon.toMarkdown(markdownSource)
+        setter.setFrameBudgetMillis(4)
+
+        val visible = markdown.getSpans(0, markdown.length, Any::class.java).size - 200
+
+        setter.setParsedMarkdown(textView, markdown, null)
+        assertEquals(visible + 80, countAppliedSpans(markdown))
+
+        nextFrame()
+        assertEquals(visible + 160, countAppliedSpans(markdown))
+    }
+
+    @Test
+    fun `should cancel the remaining slices when setting new markdown`() {
+        val oldMarkdown = markwon.toMarkdown(markdownSource)
+        val newMarkdown = markwon.toMarkdown("# Other\n\n" + (1..50).joinToString("\n\n") { "Item **$it**" })
+        var oldCompleted = 0
+        var newCompleted = 0
+
+        setter.setParsedMarkdown(textView, oldMarkdown, { oldCompleted++ })
+        assertTrue(countAppliedSpans(oldMarkdown) < oldMarkdown.getSpans(0, oldMarkdown.length, Any::class.java).size)
+
+        setter.setParsedMarkdown(textView, newMarkdown, { newCompleted++ })
+        shadowOf(Looper.getMainLooper()).idleFor(Duration.ofSeconds(1))
+
+        assertEquals(newMarkdown.toString(), textView.text.toString())
+        val text = textView.text as Spanned
+        assertEquals(50, text.getSpans(0, text.length, StrongEmphasisSpan::class.java).size)
+        assertEquals(0, oldCompleted)
+        assertEquals(1, newCompleted)
+        assertEquals(listOf("first", "second"), hookCalls)
+    }
+
+    @Test
+    fun `should execute the afterSetText hooks exactly once after all spans have been applied`() {
+        val markdown = markwon.toMarkdown(markdownSource)
+        val total = markdown.getSpans(0, markdown.length, Any::class.java).size
+        val appliedWhenHooked = mutableListOf<Int>()
+        markwon = Markwon.builder(ApplicationProvider.getApplicationContext())
+            .usePlugin(object : AbstractMarkwonPlugin() {
+                override fun afterSetText(textView: TextView) {
+                    appliedWhenHooked.add(countAppliedSpans(markdown))
+                }
+            })
+            .build()
+        setter = TimeSlicedTextSetter(markwon) {
+            now.also { now += TimeUnit.MILLISECONDS.toNanos(1) }
+        }
+        setter.setFrameBudgetMillis(2)
+        var onComplete = 0
+
+        setter.setParsedMarkdown(textView, markdown, { onComplete++ })
+        assertTrue(appliedWhenHooked.isEmpty())
+
+        shadowOf(Looper.getMainLooper()).idleFor(Duration.ofSeconds(1))
+
+        assertEquals(listOf(total), appliedWhenHooked)
+        assertEquals(1, onComplete)
+    }
+
+    @Test
+    fun `should set a spannable and update only its spans when the text did not change`() {
+        setter.setParsedMarkdown(textView, markwon.toMarkdown(markdownSource), null)
+        shadowOf(Looper.getMainLooper()).idleFor(Duration.ofSeconds(1))
+        val text = textView.text as Spannable
+        assertFalse(text is Editable)
+
+        val rerendered = markwon.toMarkdown(markdownSource) as Spannable
+        rerendered.setSpan(URLSpan("https://example.com"), 0, 5, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE)
+        setter.setParsedMarkdown(textView, rerendered, null)
+        shadowOf(Looper.getMainLooper()).idleFor(Duration.ofSeconds(1))
+
+        assertSame(text, textView.text)
+        assertEquals(1, text.getSpans(0, text.length, URLSpan::class.java).size)
+        assertEquals(200, text.getSpans(0, text.length, StrongEmphasisSpan::class.java).size)
+
+        val changed = markwon.toMarkdown("# Other")
+        setter.setParsedMarkdown(textView, changed, null)
+        shadowOf(Looper.getMainLooper()).idleFor(Duration.ofSeconds(1))
+
+        assertNotSame(text, textView.text)
+        assertFalse(textView.text is Editable)
+        assertEquals(changed.toString(), textView.text.toString())
+    }
+
+    private fun nextFrame() {
+        shadowOf(Looper.getMainLooper()).idleFor(frameDelay)
+    }
+
+    private fun getStrongSpansInOrder(markdown: Spanned): List<StrongEmphasisSpan> {
+        return markdown.getSpans(0, markdown.length, StrongEmphasisSpan::class.java)
+            .sortedBy { markdown.getSpanStart(it) }
+    }
+
+    private fun isApplied(span: Any): Boolean {
+        return (textView.text as Spanned).getSpanStart(span) >= 0
+    }
+
+    private fun countAppliedSpans(markdown: Spanned): Int {
+        return markdown.getSpans(0, markdown.length, Any::class.java).count { isApplied(it) }
+    }
+}
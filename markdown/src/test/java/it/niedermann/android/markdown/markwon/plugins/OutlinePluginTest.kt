@@ -0,0 +1,128 @@
+package it.niedermann.android.markdown.markwon.plugins
+
+import android.os.Looper
+import android.text.SpannableStringBuilder
+import android.widget.TextView
+import androidx.test.core.app.ApplicationProvider
+import io.noties.markwon.Markwon
+import it.niedermann.android.markdown.markwon.SpannableDiffUtil
+import it.niedermann.android.markdown.model.OutlineEntry
+import junit.framework.TestCase
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.Shadows.shadowOf
+
+@RunWith(RobolectricTestRunner::class)
+class OutlinePluginTest : TestCase() {
+
+    private lateinit var textView: TextView
+    private lateinit var markwon: Markwon
+    private val outlines = mutableListOf<List<OutlineEntry>>()
+
+    @Before
+    fun setup() {
+        textView = TextView(ApplicationProvider.getApplicationContext())
+        markwon = Markwon.builder(ApplicationProvider.getApplicationContext())
+            .bufferType(TextView.BufferType.EDITABLE)
+            .usePlugin(OutlinePlugin.create { outlines.add(it) })
+            .build()
+    }
+
+    @Test
+    fun findHeadingLines() {
+        val source = """
+            # Title
+
+            Lorem
+            ipsum
+            ---
+
+            ```
+            # No heading
+            ```
+
+            ---
+
+            ### Sub
+        """.trimIndent()
+
+        val headingLines = OutlinePlugin.findHeadingLines(source)
+
+        assertEquals(3, headingLines.size)
+        assertEquals(listOf(1, 0), headingLines[0].toList())
+        assertEquals(listOf(2, source.indexOf("Lorem")), headingLines[1].toList())
+        assertEquals(listOf(3, source.indexOf("### Sub")), headingLines[2].toList())
+    }
+
+    @Test
+    fun `findHeadingLines in block quotes`() {
+        val source = """
+            > # Quoted
+            >
+            > Lorem
+            > ===
+            >> ## Nested
+
+            Text
+            > ---
+        """.trimIndent()
+
+        val headingLines = OutlinePlugin.findHeadingLines(source)
+
+        assertEquals(3, headingLines.size)
+        assertEquals(listOf(1, 0), headingLines[0].toList())
+        assertEquals(listOf(1, source.indexOf("> Lorem")), headingLines[1].toList())
+        assertEquals(listOf(2, source.indexOf(">> ## Nested")), headingLines[2].toList())
+    }
+
+    @Test
+    fun `should publish the outline after setting the markdown`() {
+        val source = "# Title\n\nText\n\n> ## Quoted\n\n### Sub"
+
+        markwon.setMarkdown(textView, source)
+
+        val text = textView.text.toString()
+        assertEquals(
+            listOf(
+                OutlineEntry(1, "Title", 0, text.indexOf("Title")),
+                OutlineEntry(2, "Quoted", source.indexOf("> ## Quoted"), text.indexOf("Quoted")),
+                OutlineEntry(3, "Sub", source.indexOf("### Sub"), text.indexOf("Sub"))
+            ), outlines.last()
+        )
+    }
+
+    @Test
+    fun `should publish the outline again when other plugins change the text`() {
+        markwon.setMarkdown(textView, "Hi @foo\n\n# Title @foo!")
+        assertEquals(1, outlines.size)
+        val renderedOffset = outlines.last()[0].renderedOffset
+
+        // Like the mentions plugin, which replaces user ids with display names after the text has been set
+        val rewritten = SpannableStringBuilder(textView.text)
+        val mentionInHeading = rewritten.lastIndexOf("@foo")
+        rewritten.replace(mentionInHeading, mentionInHeading + 4, "Foo Bidoo")
+        rewritten.replace(3, 7, "Foo Bidoo")
+        SpannableDiffUtil.setText(textView, rewritten)
+        shadowOf(Looper.getMainLooper()).idle()
+
+        assertEquals(2, outlines.size)
+        assertEquals(listOf(OutlineEntry(1, "Title Foo Bidoo!", 0, renderedOffset + 5)), outlines.last())
+
+        // Changes which do not affect the headings are not published
+        SpannableDiffUtil.setText(textView, SpannableStringBuilder(textView.text).replace(0, 2, "Yo"))
+        shadowOf(Looper.getMainLooper()).idle()
+        assertEquals(2, outlines.size)
+    }
+
+    @Test
+    fun `should not publish outdated headings while setting new markdown`() {
+        markwon.setMarkdown(textView, "# Title")
+        markwon.setMarkdown(textView, "Foo\n\n## Other")
+        shadowOf(Looper.getMainLooper()).idle()
+
+        assertEquals(2, outlines.size)
+        assertEquals(listOf(OutlineEntry(2, "Other", 5, 5)), outlines.last())
+    }
+}
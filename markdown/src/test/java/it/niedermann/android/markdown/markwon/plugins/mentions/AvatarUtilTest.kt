@@ -0,0 +1,52 @@
+package it.niedermann.android.markdown.markwon.plugins.mentions
+
+import android.graphics.Color
+import android.graphics.drawable.ColorDrawable
+import android.graphics.drawable.Drawable
+import android.text.Spannable
+import android.text.SpannableStringBuilder
+import it.niedermann.android.markdown.markwon.plugins.mentions.AvatarSpanFactory.AvatarBrokenSpan
+import it.niedermann.android.markdown.markwon.plugins.mentions.AvatarSpanFactory.AvatarPlaceholderSpan
+import junit.framework.TestCase
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import java.util.concurrent.atomic.AtomicReference
+
+@RunWith(RobolectricTestRunner::class)
+class AvatarUtilTest : TestCase() {
+
+    @Test
+    fun `should recolor placeholders in place`() {
+        val oldDrawable = ColorDrawable(Color.BLUE)
+        val placeholder = AtomicReference<Drawable>(oldDrawable)
+        val broken = AtomicReference<Drawable>(oldDrawable)
+        val util = AvatarUtil(MentionsCache.getInstance(), placeholder, broken)
+
+        val spannable = SpannableStringBuilder("@foo and @bar")
+        spannable.setSpan(AvatarPlaceholderSpan(oldDrawable, "foo", "https://example.com/foo"), 0, 1, Spannable.SPAN_EXCLUSIVE_EXCLUSIVE)
+        spannable.setSpan(AvatarBrokenSpan(oldDrawable), 9, 10, Spannable.SPAN_EXCLUSIVE_EXCLUSIVE)
+
+        val newPlaceholder = ColorDrawable(Color.RED)
+        val newBroken = ColorDrawable(Color.GREEN)
+        placeholder.set(newPlaceholder)
+        broken.set(newBroken)
+        util.recolorPlaceholders(spannable)
+
+        val placeholderSpans = spannable.getSpans(0, spannable.length, AvatarPlaceholderSpan::class.java)
+        assertEquals(1, placeholderSpans.size)
+        assertSame(newPlaceholder, placeholderSpans[0].drawable)
+        assertEquals("foo", placeholderSpans[0].userId)
+        assertEquals("https://example.com/foo", placeholderSpans[0].url)
+        assertEquals(0, spannable.getSpanStart(placeholderSpans[0]))
+        assertEquals(1, spannable.getSpanEnd(placeholderSpans[0]))
+
+        val brokenSpans = spannable.getSpans(0, spannable.length, AvatarBrokenSpan::class.java)
+        assertEquals(1, brokenSpans.size)
+        assertSame(newBroken, brokenSpans[0].drawable)
+        assertEquals(9, spannable.getSpanStart(brokenSpans[0]))
+        assertEquals(10, spannable.getSpanEnd(brokenSpans[0]))
+
+        assertEquals("@foo and @bar", spannable.toString())
+    }
+}
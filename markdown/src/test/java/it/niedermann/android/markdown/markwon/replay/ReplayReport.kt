@@ -0,0 +1,52 @@
+package it.niedermann.android.markdown.markwon.replay
+
+/**
+ * Latencies and allocations of each replayed [TraceEvent].
+ */
+class ReplayReport(val entries: List<Entry>) {
+
+    /**
+     * @param dispatchNanos time spent synchronously on the main thread, e.g. in the text watchers
+     * @param highlightNanos time until the highlighting has been applied or `null` if it did not finish
+     * @param editorStateNanos time until the editor state has been delivered or `null` if no state has been calculated
+     * @param allocatedBytes allocated by all threads alive until the event has been processed completely
+     */
+    data class Entry(
+        val event: TraceEvent,
+        val documentLength: Int,
+        val dispatchNanos: Long,
+        val highlightNanos: Long?,
+        val editorStateNanos: Long?,
+        val allocatedBytes: Long
+    )
+
+    fun percentile(percentile: Int, selector: (Entry) -> Long?): Long {
+        val values = entries.mapNotNull(selector).sorted()
+        if (values.isEmpty()) {
+            return 0
+        }
+        return values[((values.size - 1) * percentile / 100.0).toInt()]
+    }
+
+    /**
+     * @return one line per entry, so reports of different builds can be compared with common tools
+     */
+    fun toCsv(): String = buildString {
+        appendLine("event,documentLength,dispatchNanos,highlightNanos,editorStateNanos,allocatedBytes")
+        entries.forEach {
+            appendLine("\"${it.event.toString().replace("\n", "\\n").replace("\"", "'")}\",${it.documentLength},${it.dispatchNanos},${it.highlightNanos ?: ""},${it.editorStateNanos ?: ""},${it.allocatedBytes}")
+        }
+    }
+
+    override fun toString(): String = buildString {
+        appendLine("${entries.size} events")
+        listOf<Pair<String, (Entry) -> Long?>>(
+            "dispatch µs" to { it.dispatchNanos / 1_000 },
+            "highlight µs" to { it.highlightNanos?.div(1_000) },
+            "editor state µs" to { it.editorStateNanos?.div(1_000) },
+            "allocated KiB" to { it.allocatedBytes / 1024 }
+        ).forEach { (name, selector) ->
+            appendLine("$name: p50=${percentile(50, selector)} p90=${percentile(90, selector)} p99=${percentile(99, selector)} max=${percentile(100, selector)}")
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package it.niedermann.android.markdown.markwon.replay
+
+import it.niedermann.android.markdown.controller.Command
+import kotlin.random.Random
+
+/**
+ * A single user interaction which can be replayed against an editor.
+ */
+sealed class TraceEvent {
+
+    data class Type(val text: String) : TraceEvent()
+    data class Backspace(val times: Int = 1) : TraceEvent()
+    object Enter : TraceEvent()
+    data class Paste(val text: String) : TraceEvent()
+    data class Select(val start: Int, val end: Int = start) : TraceEvent()
+    data class ExecuteCommand(val command: Command) : TraceEvent()
+
+    companion object {
+
+        /**
+         * Parses a recorded trace with one event per line, e.g. <code>type foo</code>, <code>enter</code>, <code>backspace 2</code>,
+         * <code>paste foo\nbar</code>, <code>select 3 5</code> or <code>command TOGGLE_BOLD</code>.
+         * Blank lines and lines starting with <code>#</code> are ignored, <code>\n</code> in texts is unescaped.
+         */
+        fun parse(trace: String): List<TraceEvent> = trace.lineSequence()
+            .filter { it.isNotBlank() && !it.startsWith("#") }
+            .map { line ->
+                val name = line.substringBefore(' ')
+                val argument = line.substringAfter(' ', "")
+                when (name) {
+                    "type" -> Type(unescape(argument))
+                    "backspace" -> Backspace(argument.ifEmpty { "1" }.toInt())
+                    "enter" -> Enter
+                    "paste" -> Paste(unescape(argument))
+                    "select" -> argument.split(' ').map { it.toInt() }.let { positions -> Select(positions[0], positions.getOrElse(1) { positions[0] }) }
+                    "command" -> ExecuteCommand(Command.valueOf(argument))
+                    else -> throw IllegalArgumentException("Unknown trace event: $line")
+                }
+            }
+            .toList()
+
+        /**
+         * Creates a reproducible trace of a user writing a note with paragraphs, lists, corrections and formatting.
+         */
+        fun synthetic(seed: Long, events: Int): List<TraceEvent> {
+            val random = Random(seed)
+            val words = listOf("lorem", "ipsum", "dolor", "sit", "amet", "consectetur", "adipiscing", "elit")
+            val trace = mutableListOf<TraceEvent>()
+            while (trace.size < events) {
+                when (random.nextInt(20)) {
+                    0 -> trace.add(Type("- [ ] "))
+                    1 -> trace.add(Type("1. "))
+                    2, 3 -> trace.add(Enter)
+                    4 -> trace.add(Backspace(random.nextInt(1, 4)))
+                    5 -> trace.add(ExecuteCommand(Command.TOGGLE_BOLD))
+                    6 -> trace.add(Paste(List(random.nextInt(5, 50)) { words.random(random) }.joinToString(" ", postfix = "\n")))
+                    else -> {
+                        words.random(random).forEach { trace.add(Type(it.toString())) }
+                        trace.add(Type(" "))
+                    }
+                }
+            }
+            return trace.take(events)
+        }
+
+        private fun unescape(text: String) = text.replace("\\n", "\n")
+    }
+}
@@ -0,0 +1,95 @@
+package it.niedermann.android.markdown.markwon.replay
+
+import androidx.test.core.app.ApplicationProvider
+import it.niedermann.android.markdown.controller.Command
+import junit.framework.TestCase
+import org.junit.Assume
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+
+@RunWith(RobolectricTestRunner::class)
+class TraceReplayTest : TestCase() {
+
+    private lateinit var replayer: TraceReplayer
+
+    @Before
+    fun setup() {
+        replayer = TraceReplayer(ApplicationProvider.getApplicationContext())
+    }
+
+    @Test
+    fun `should parse traces`() {
+        val events = TraceEvent.parse(
+            """
+            # Comment
+            type foo
+            enter
+
+            backspace 2
+            paste a\nb
+            select 3 5
+            select 4
+            command TOGGLE_BOLD
+            """.trimIndent()
+        )
+
+        assertEquals(
+            listOf(
+                TraceEvent.Type("foo"),
+                TraceEvent.Enter,
+                TraceEvent.Backspace(2),
+                TraceEvent.Paste("a\nb"),
+                TraceEvent.Select(3, 5),
+                TraceEvent.Select(4),
+                TraceEvent.ExecuteCommand(Command.TOGGLE_BOLD)
+            ), events
+        )
+    }
+
+    @Test
+    fun `should replay recorded trace`() {
+        val trace = javaClass.classLoader!!.getResource("traces/checklist.trace").readText()
+        val events = TraceEvent.parse(trace)
+
+        val report = replayer.replay("", events)
+
+        assertEquals(
+            "Shopping\n\n# Groceries\n\n- [ ] Milk\n- [ ] Bread\n\nDon't forget the **bag**",
+            replayer.editor.text.toString()
+        )
+        assertEquals(events.size, report.entries.size)
+        assertTrue(report.entries.all { it.dispatchNanos >= 0 })
+        assertEquals(events.size + 1, report.toCsv().lines().filter { it.isNotEmpty() }.size)
+    }
+
+    @Test
+    fun `should replay synthetic trace`() {
+        val events = TraceEvent.synthetic(42, 200)
+        assertEquals(events, TraceEvent.synthetic(42, 200))
+
+        val report = replayer.replay("", events)
+
+        assertEquals(200, report.entries.size)
+        assertTrue(replayer.editor.length() > 0)
+    }
+
+    /**
+     * Opt-in benchmark for large documents, run with <code>-Dreplay.benchmark</code>
+     */
+    @Test
+    fun `benchmark typing in large documents`() {
+        Assume.assumeTrue(System.getProperty("replay.benchmark") != null)
+
+        for (megabytes in listOf(1, 5)) {
+            val paragraph = "## Heading\n\nSome **bold** and *italic* text with a [link](https://example.com).\n\n- [ ] Task\n- [x] Done\n\n"
+            val document = paragraph.repeat(megabytes * 1024 * 1024 / paragraph.length)
+
+            val report = replayer.replay(document, TraceEvent.synthetic(megabytes.toLong(), 500))
+
+            println("Document with $megabytes MB\n$report")
+            println(report.toCsv())
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package it.niedermann.android.markdown.markwon.replay
+
+import android.content.Context
+import android.os.Looper
+import com.google.common.util.concurrent.MoreExecutors
+import it.niedermann.android.markdown.EditLatencyListener
+import it.niedermann.android.markdown.controller.CommandReceiver
+import it.niedermann.android.markdown.controller.EditorState
+import it.niedermann.android.markdown.controller.EditorStateNotifier
+import it.niedermann.android.markdown.controller.MarkdownController
+import it.niedermann.android.markdown.markwon.MarkwonMarkdownEditor
+import org.robolectric.Shadows.shadowOf
+import java.lang.management.ManagementFactory
+import java.time.Duration
+
+/**
+ * Replays [TraceEvent]s against a [MarkwonMarkdownEditor] and measures each of them, so the performance of different builds can be compared offline.
+ *
+ * The [EditorStateNotifier] runs on the main thread to include it in the measurements.
+ * After each event the main looper is idled until the highlighting has been applied or [highlightTimeout] passed.
+ */
+class TraceReplayer(
+    context: Context,
+    private val highlightTimeout: Duration = Duration.ofSeconds(5)
+) {
+
+    val editor = MarkwonMarkdownEditor(context, null, android.R.attr.editTextStyle) { listeners ->
+        object : EditorStateNotifier(listeners, MoreExecutors.newDirectExecutorService(), EditorState.Factory()) {}
+    }
+
+    private val threadMXBean = ManagementFactory.getThreadMXBean() as com.sun.management.ThreadMXBean
+    private val latencies = mutableMapOf<EditLatencyListener.Stage, Long>()
+    private var textChanged = false
+
+    init {
+        editor.setEditLatencyListener { stage, latencyNanos, _ -> latencies[stage] = latencyNanos }
+        editor.setTextChangeListener { textChanged = true }
+        // Like a toolbar, so the editor state gets calculated and delivered for each event
+        editor.registerController(object : MarkdownController {
+            override fun setCommandReceiver(commandReceiver: CommandReceiver?) = Unit
+            override fun onEditorStateChanged(state: EditorState) = Unit
+        })
+    }
+
+    fun replay(initialContent: CharSequence, events: List<TraceEvent>): ReplayReport {
+        textChanged = true
+        editor.setMarkdownString(initialContent)
+        editor.setSelection(initialContent.length)
+        awaitHighlighting()
+
+        return ReplayReport(events.map { replay(it) })
+    }
+
+    private fun replay(event: TraceEvent): ReplayReport.Entry {
+        latencies.clear()
+        textChanged = false
+        val allocatedBefore = allocatedBytes()
+
+        val dispatchStart = System.nanoTime()
+        dispatch(event)
+        val dispatchNanos = System.nanoTime() - dispatchStart
+
+        awaitHighlighting()
+
+        return ReplayReport.Entry(
+            event,
+            editor.length(),
+            dispatchNanos,
+            latencies[EditLatencyListener.Stage.HIGHLIGHT],
+            latencies[EditLatencyListener.Stage.EDITOR_STATE],
+            allocatedBytesBetween(allocatedBefore, allocatedBytes())
+        )
+    }
+
+    private fun dispatch(event: TraceEvent) {
+        val text = editor.text ?: throw IllegalStateException("Editor has no text")
+        val start = editor.selectionStart
+        val end = editor.selectionEnd
+
+        // Edits are applied like an input method commits them
+        when (event) {
+            is TraceEvent.Type -> text.replace(start, end, event.text)
+            is TraceEvent.Paste -> text.replace(start, end, event.text)
+            is TraceEvent.Enter -> text.replace(start, end, "\n")
+            is TraceEvent.Backspace -> repeat(event.times) {
+                val cursor = editor.selectionStart
+                if (editor.selectionEnd > cursor) {
+                    text.delete(cursor, editor.selectionEnd)
+                } else if (cursor > 0) {
+                    text.delete(cursor - 1, cursor)
+                }
+            }
+            is TraceEvent.Select -> editor.setSelection(event.start.coerceIn(0, text.length), event.end.coerceIn(0, text.length))
+            is TraceEvent.ExecuteCommand -> try {
+                editor.executeCommand(event.command)
+            } catch (e: UnsupportedOperationException) {
+                // The command is not available for the current selection, like the disabled button in the toolbar
+            }
+        }
+    }
+
+    private fun awaitHighlighting() {
+        val looper = shadowOf(Looper.getMainLooper())
+        val deadline = System.nanoTime() + highlightTimeout.toNanos()
+        do {
+            looper.idleFor(Duration.ofMillis(20))
+            if (!textChanged || latencies.containsKey(EditLatencyListener.Stage.HIGHLIGHT)) {
+                return
+            }
+            // Highlighting runs on a background thread which posts its result to the main looper
+            Thread.sleep(1)
+        } while (System.nanoTime() < deadline)
+    }
+
+    /**
+     * @return the bytes allocated so far by each live thread by its id
+     */
+    private fun allocatedBytes(): Map<Long, Long> {
+        val ids = threadMXBean.allThreadIds
+        val bytes = threadMXBean.getThreadAllocatedBytes(ids)
+        // Threads which exited meanwhile are reported with -1
+        return ids.indices.filter { bytes[it] >= 0 }.associate { ids[it] to bytes[it] }
+    }
+
+    /**
+     * Compares the samples per thread, so threads exiting between [before] and [after] cannot make the result negative.
+     * Thread ids are never reused, threads started in between count from zero.
+     *
+     * Allocations of threads which exit before [after] is sampled are not included.
+     * Besides the main thread this only concerns the pre-render workers, which exit after idling for five seconds, so they outlive the processing of a single event.
+     */
+    private fun allocatedBytesBetween(before: Map<Long, Long>, after: Map<Long, Long>): Long =
+        after.entries.sumOf { (id, bytes) -> bytes - (before[id] ?: 0L) }
+}
@@ -188,6 +188,21 @@ class AutoContinuationTextWatcherTest : TestCase() {
         assertText("- [x] Foo\n\nab", 11)
     }
 
+    @Test
+    fun `should only consider the edited line`() {
+        editText.setText("- Foo\n- Bar")
+        pressEnter(5)
+        assertText("- Foo\n- \n- Bar", 8)
+
+        editText.setText("- Foo\n\nBar\n- Baz")
+        pressEnter(10)
+        assertText("- Foo\n\nBar\n\n- Baz", 11)
+
+        editText.setText("Foo\n- \nBar")
+        pressEnter(6)
+        assertText("Foo\n\n\nBar", 5)
+    }
+
     private fun assertText(expected: String, cursorPosition: Int) {
         assertEquals(expected, editText.text.toString())
         assertEquals(cursorPosition, editText.selectionStart)
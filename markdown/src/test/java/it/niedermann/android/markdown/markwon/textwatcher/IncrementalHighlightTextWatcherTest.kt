@@ -0,0 +1,316 @@
+package it.niedermann.android.markdown.markwon.textwatcher
+
+import android.app.Activity
+import android.os.Looper
+import android.text.SpannableStringBuilder
+import android.text.Spanned
+import android.text.style.ForegroundColorSpan
+import android.widget.EditText
+import androidx.lifecycle.Lifecycle
+import androidx.test.core.app.ApplicationProvider
+import io.mockk.every
+import io.mockk.mockk
+import io.mockk.mockkStatic
+import io.mockk.unmockkStatic
+import io.mockk.verify
+import io.noties.markwon.Markwon
+import io.noties.markwon.core.spans.CodeBlockSpan
+import io.noties.markwon.core.spans.EmphasisSpan
+import io.noties.markwon.core.spans.HeadingSpan
+import io.noties.markwon.editor.MarkwonEditor
+import io.noties.markwon.editor.handler.EmphasisEditHandler
+import it.niedermann.android.markdown.MarkdownUtil
+import it.niedermann.android.markdown.markwon.handler.CodeBlockEditHandler
+import it.niedermann.android.markdown.markwon.handler.HeadingEditHandler
+import junit.framework.TestCase
+import org.junit.After
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.Robolectric
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.Shadows.shadowOf
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Future
+
+@RunWith(RobolectricTestRunner::class)
+class IncrementalHighlightTextWatcherTest : TestCase() {
+
+    private val text = "# Title\n\nFoo\nBar\n\n```\ncode\n\nmore code\n```\n\nBaz"
+    private val largeText = (1..100).joinToString("\n\n") { "Paragraph *$it*" }
+
+    @After
+    fun tearDown() {
+        unmockkStatic(MarkdownUtil::class)
+    }
+
+    @Test
+    fun `should expand the dirty range to the touched paragraph`() {
+        val dirty = text.indexOf("Bar")
+        assertRegion(text.indexOf("Foo"), text.indexOf("Bar") + 3, dirty, dirty + 1, false)
+    }
+
+    @Test
+    fun `should include the whole fenced code block`() {
+        val dirty = text.indexOf("more")
+        assertRegion(text.indexOf("```"), text.lastIndexOf("```") + 3, dirty, dirty + 1, false)
+    }
+
+    @Test
+    fun `should expand to the end of the document when a code fence changed`() {
+        val dirty = text.indexOf("```")
+        assertRegion(dirty, text.length, dirty, dirty + 3, true)
+    }
+
+    @Test
+    fun `should include a code block which is not closed`() {
+        val unclosed = "Foo\n\n```\ncode\n\nmore code"
+        val dirty = unclosed.indexOf("more")
+        assertRegion(unclosed.indexOf("```"), unclosed.length, dirty, dirty, false, unclosed)
+    }
+
+    @Test
+    fun `should include fenced code blocks opened with tildes or longer fences`() {
+        val tildes = "Foo\n\n~~~ kotlin\ncode\n```\n\nmore\n~~~\n\nBar"
+        val dirty = tildes.indexOf("more")
+        assertRegion(tildes.indexOf("~~~"), tildes.lastIndexOf("~~~") + 3, dirty, dirty, false, tildes)
+
+        val longer = "Foo\n\n````\ncode\n```\n\nmore\n  `````\n\nBar"
+        val dirtyLonger = longer.indexOf("more")
+        assertRegion(longer.indexOf("````"), longer.indexOf("`````") + 5, dirtyLonger, dirtyLonger, false, longer)
+    }
+
+    @Test
+    fun `should not treat indented or invalid fences as code blocks`() {
+        val invalid = "Foo\n\n    ```\n\n``\n\n```a`b\n\nBar"
+        val dirty = invalid.indexOf("Bar")
+        assertRegion(dirty, invalid.length, dirty, dirty, false, invalid)
+    }
+
+    @Test
+    fun `should keep the code fence index up to date`() {
+        val s = SpannableStringBuilder(text)
+        val index = CodeFenceIndex(s)
+
+        // Typing into a code block or the info string does not change its boundaries
+        assertFalse(edit(s, index, s.indexOf("more"), 0, "even "))
+        // Unless the info string gets added, because the fence can no longer close a code block
+        assertTrue(edit(s, index, s.indexOf("```") + 3, 0, "j"))
+        assertFalse(edit(s, index, s.indexOf("```") + 4, 0, "ava"))
+        assertIndexMatches(s, index)
+
+        // Closing the block earlier
+        assertTrue(edit(s, index, s.indexOf("code"), 0, "```\n"))
+        assertIndexMatches(s, index)
+
+        // Joining a fence with the previous line removes it
+        assertTrue(edit(s, index, s.indexOf("```java") - 2, 2, ""))
+        assertIndexMatches(s, index)
+
+        // Replacing a range spanning multiple fences
+        assertTrue(edit(s, index, s.indexOf("Bar"), s.lastIndexOf("```") + 3 - s.indexOf("Bar"), "~~~\nnew\n"))
+        assertIndexMatches(s, index)
+
+        // Appending to the end without fences
+        assertFalse(edit(s, index, s.length, 0, "\n\nQux"))
+        assertIndexMatches(s, index)
+    }
+
+    @Test
+    fun `should move reused spans to their rendered range`() {
+        val editText = createHighlightedEditText("# Title\nFoo\n\nSome *emph*asis").first
+        val editable = editText.text
+        val heading = editable.getSpans(0, editable.length, HeadingSpan::class.java).single()
+
+        // Joining the lines shrinks the heading span to "# Title", while the rendering extends it to "# TitleFoo"
+        editable.delete(editable.indexOf("\n"), editable.indexOf("\n") + 1)
+        shadowOf(Looper.getMainLooper()).idle()
+        assertSame(heading, editable.getSpans(0, editable.length, HeadingSpan::class.java).single())
+        assertEquals(0, editable.getSpanStart(heading))
+        assertTrue(editable.getSpanEnd(heading) >= editable.indexOf("\n"))
+
+        val emphasis = editable.getSpans(0, editable.length, EmphasisSpan::class.java).single()
+        editable.replace(editable.indexOf("*asis"), editable.length, "asis*")
+        shadowOf(Looper.getMainLooper()).idle()
+        assertSame(emphasis, editable.getSpans(0, editable.length, EmphasisSpan::class.java).single())
+        assertEquals(editable.indexOf("*emph"), editable.getSpanStart(emphasis))
+        assertEquals(editable.length, editable.getSpanEnd(emphasis))
+    }
+
+    @Test
+    fun `should highlight like a full rendering after editing code fences`() {
+        val editText = createHighlightedEditText("# Title\n\nFoo *bar*\n\n~~~\ncode\n~~~\n\nBaz *qux*\n\n```\nmore\n```").first
+        val editable = editText.text
+
+        editable.insert(editable.indexOf("Foo"), "```\n")
+        shadowOf(Looper.getMainLooper()).idle()
+        assertEquals(getHighlighting(createHighlightedEditText(editable.toString()).first.text), getHighlighting(editable))
+
+        editable.delete(editable.indexOf("```\nFoo"), editable.indexOf("Foo"))
+        editable.replace(editable.indexOf("~~~\n\n"), editable.indexOf("~~~\n\n") + 3, "```")
+        shadowOf(Looper.getMainLooper()).idle()
+        assertEquals(getHighlighting(createHighlightedEditText(editable.toString()).first.text), getHighlighting(editable))
+
+        editable.insert(editable.indexOf("more"), "even ")
+        shadowOf(Looper.getMainLooper()).idle()
+        assertEquals(getHighlighting(createHighlightedEditText(editable.toString()).first.text), getHighlighting(editable))
+    }
+
+    @Test
+    fun `should only highlight a window around the visible lines of large documents`() {
+        showParagraph(50)
+        val (editText, watcher) = createHighlightedEditText(largeText, largeText.length)
+        val editable = editText.text
+        assertEquals(listOf(50), getHighlightedParagraphs(editable))
+
+        // Scrolling within the window does not render again
+        showParagraph(50)
+        watcher.onViewportChanged()
+        shadowOf(Looper.getMainLooper()).idle()
+        assertEquals(listOf(50), getHighlightedParagraphs(editable))
+
+        val foreign = ForegroundColorSpan(0)
+        editable.setSpan(foreign, largeText.indexOf("Paragraph *10*"), largeText.indexOf("Paragraph *11*"), Spanned.SPAN_EXCLUSIVE_EXCLUSIVE)
+        showParagraph(80)
+        watcher.onViewportChanged()
+        shadowOf(Looper.getMainLooper()).idle()
+        assertEquals(listOf(80), getHighlightedParagraphs(editable))
+        assertEquals("Spans which have not been added by the highlighting must be kept", largeText.indexOf("Paragraph *10*"), editable.getSpanStart(foreign))
+    }
+
+    @Test
+    fun `should switch between viewport and full highlighting when crossing the threshold`() {
+        showParagraph(50)
+        val (editText, _) = createHighlightedEditText(largeText, largeText.length + 10)
+        val editable = editText.text
+        assertEquals((1..100).toList(), getHighlightedParagraphs(editable))
+
+        editable.append("\n\nMore text")
+        shadowOf(Looper.getMainLooper()).idle()
+        assertEquals(listOf(50), getHighlightedParagraphs(editable))
+
+        editable.delete(largeText.length, editable.length)
+        shadowOf(Looper.getMainLooper()).idle()
+        assertEquals((1..100).toList(), getHighlightedParagraphs(editable))
+    }
+
+    @Test
+    fun `should render everything when everything is dirty`() {
+        assertRegion(0, text.length, -1, -1, false)
+    }
+
+    @Test
+    fun `should split large regions only at blank lines outside of code blocks`() {
+        val chunks = IncrementalHighlightTextWatcher.getChunks(text, 5)
+
+        assertEquals(
+            listOf(
+                listOf(0, text.indexOf("Foo")),
+                listOf(text.indexOf("Foo"), text.indexOf("```")),
+                listOf(text.indexOf("```"), text.indexOf("Baz")),
+                listOf(text.indexOf("Baz"), text.length)
+            ),
+            chunks.map { it.toList() }
+        )
+        assertEquals(listOf(listOf(0, text.length)), IncrementalHighlightTextWatcher.getChunks(text, text.length).map { it.toList() })
+    }
+
+    @Test
+    fun `should cancel the pending rendering on pause and render the remaining changes on resume`() {
+        val editText = EditText(ApplicationProvider.getApplicationContext())
+        val future = mockk<Future<Any>>(relaxed = true)
+        val executor = mockk<ExecutorService>()
+        every { executor.submit(any<Runnable>()) } returns future
+        val watcher = IncrementalHighlightTextWatcher(mockk(), executor, editText)
+
+        editText.setText("Foo")
+        watcher.onTextChanged(editText.text, 0, 0, 3)
+        watcher.afterTextChanged(editText.text)
+        verify(exactly = 1) { executor.submit(any<Runnable>()) }
+
+        watcher.onStateChanged(mockk(), Lifecycle.Event.ON_PAUSE)
+        verify(exactly = 1) { future.cancel(false) }
+
+        watcher.onStateChanged(mockk(), Lifecycle.Event.ON_RESUME)
+        verify(exactly = 2) { executor.submit(any<Runnable>()) }
+    }
+
+    private fun assertRegion(expectedStart: Int, expectedEnd: Int, dirtyStart: Int, dirtyEnd: Int, codeFenceChanged: Boolean, s: String = text) {
+        val region = IncrementalHighlightTextWatcher.getRegion(s, CodeFenceIndex(s), dirtyStart, dirtyEnd, codeFenceChanged)
+        assertEquals(expectedStart, region[0])
+        assertEquals(expectedEnd, region[1])
+    }
+
+    /**
+     * Replaces [before] characters at [start] with [replacement] while notifying the [index] like a text watcher would.
+     *
+     * @return whether the index reported a changed code fence
+     */
+    private fun edit(s: SpannableStringBuilder, index: CodeFenceIndex, start: Int, before: Int, replacement: String): Boolean {
+        index.beforeTextChanged(s, start, before)
+        s.replace(start, start + before, replacement)
+        return index.onTextChanged(s, start, before, replacement.length)
+    }
+
+    private fun assertIndexMatches(s: CharSequence, index: CodeFenceIndex) {
+        val expected = CodeFenceIndex(s)
+        for (position in 0..s.length) {
+            assertEquals(
+                "Code blocks around $position",
+                expected.includeCodeBlocks(position, position, s.length).toList(),
+                index.includeCodeBlocks(position, position, s.length).toList()
+            )
+        }
+    }
+
+    /**
+     * @return an [EditText] showing [markdown], highlighted by an [IncrementalHighlightTextWatcher] which renders synchronously
+     */
+    private fun createHighlightedEditText(markdown: String, viewportHighlightingThreshold: Int = Int.MAX_VALUE): Pair<EditText, IncrementalHighlightTextWatcher> {
+        val activity = Robolectric.buildActivity(Activity::class.java).setup().get()
+        val editText = EditText(activity)
+        // Posted runnables of detached views are never executed
+        activity.setContentView(editText)
+
+        val editor = MarkwonEditor.builder(Markwon.create(activity))
+            .useEditHandler(EmphasisEditHandler())
+            .useEditHandler(HeadingEditHandler())
+            .useEditHandler(CodeBlockEditHandler())
+            .build()
+        val executor = mockk<ExecutorService>()
+        every { executor.submit(any<Runnable>()) } answers {
+            firstArg<Runnable>().run()
+            mockk<Future<Any>>(relaxed = true)
+        }
+        val watcher = IncrementalHighlightTextWatcher(editor, executor, editText)
+        watcher.setViewportHighlightingThreshold(viewportHighlightingThreshold)
+        editText.addTextChangedListener(watcher)
+        editText.setText(markdown)
+        shadowOf(Looper.getMainLooper()).idle()
+        return editText to watcher
+    }
+
+    /**
+     * Pretends that only the paragraph with the given [number] of the [largeText] is visible
+     */
+    private fun showParagraph(number: Int) {
+        val start = largeText.indexOf("Paragraph *$number*")
+        mockkStatic(MarkdownUtil::class)
+        every { MarkdownUtil.getVisibleRange(any(), any()) } returns intArrayOf(start, start + "Paragraph *$number*".length)
+    }
+
+    /**
+     * @return the numbers of the paragraphs of the [largeText] which are highlighted
+     */
+    private fun getHighlightedParagraphs(s: Spanned): List<Int> {
+        return s.getSpans(0, s.length, EmphasisSpan::class.java)
+            .map { s.subSequence(s.getSpanStart(it), s.getSpanEnd(it)).toString().trim('*').toInt() }
+            .sorted()
+    }
+
+    private fun getHighlighting(s: Spanned): List<String> {
+        return s.getSpans(0, s.length, Any::class.java)
+            .filter { it is HeadingSpan || it is EmphasisSpan || it is CodeBlockSpan }
+            .map { "${it.javaClass.simpleName} ${s.getSpanStart(it)}..${s.getSpanEnd(it)}" }
+            .sorted()
+    }
+}
@@ -0,0 +1,50 @@
+package it.niedermann.android.markdown.markwon.textwatcher
+
+import android.text.Editable
+import android.text.SpannableStringBuilder
+import android.text.TextWatcher
+import io.mockk.every
+import io.mockk.mockk
+import io.mockk.verify
+import junit.framework.TestCase
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import java.util.function.Supplier
+
+@Suppress("DEPRECATION")
+@RunWith(RobolectricTestRunner::class)
+class InterceptorTextWatcherTest : TestCase() {
+
+    @Test
+    fun `should pass changes to the stage before the original watcher`() {
+        val stage = mockk<TextWatcherStage>(relaxed = true)
+        val originalWatcher = mockk<TextWatcher>(relaxed = true)
+        val s: Editable = SpannableStringBuilder("- foo\n- bar")
+        every { stage.onTextChanged(any(), any(), any(), any(), any()) } answers {
+            assertEquals("- bar", arg<Supplier<LineContext>>(4).get().line())
+        }
+
+        val watcher = InterceptorTextWatcher.of(stage, originalWatcher)
+        watcher.beforeTextChanged(s, 8, 0, 1)
+        watcher.onTextChanged(s, 8, 0, 1)
+        watcher.afterTextChanged(s)
+
+        verify(exactly = 1) { originalWatcher.beforeTextChanged(s, 8, 0, 1) }
+        verify(exactly = 1) { stage.onTextChanged(s, 8, 0, 1, any()) }
+        verify(exactly = 1) { originalWatcher.onTextChanged(s, 8, 0, 1) }
+        verify(exactly = 1) { originalWatcher.afterTextChanged(s) }
+    }
+
+    @Test
+    fun `should not pass the change to the original watcher when the stage changed the text again`() {
+        val stage = mockk<TextWatcherStage>(relaxed = true)
+        val originalWatcher = mockk<TextWatcher>(relaxed = true)
+        val s: Editable = SpannableStringBuilder("- ")
+        every { stage.afterTextChanged(s) } returns true
+
+        InterceptorTextWatcher.of(stage, originalWatcher).afterTextChanged(s)
+
+        verify(exactly = 0) { originalWatcher.afterTextChanged(any()) }
+    }
+}
@@ -0,0 +1,53 @@
+package it.niedermann.android.markdown.markwon.textwatcher
+
+import it.niedermann.android.markdown.model.EListType
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+
+@RunWith(RobolectricTestRunner::class)
+class LineContextTest {
+
+    @Test
+    fun of() {
+        val content = "Foo\n  * [x] Bar \n12. Baz\n  -"
+
+        LineContext.of(content, 5).let {
+            assertEquals(4, it.lineStart)
+            assertEquals(16, it.lineEnd)
+            assertEquals("  * [x] Bar ", it.line)
+            assertEquals("  ", it.indention)
+            assertEquals("* [x] Bar", it.trimmedLine)
+            assertEquals(EListType.STAR, it.listType)
+            assertTrue(it.checkbox)
+            assertNull(it.orderedListNumber)
+            assertFalse(it.endsWithTrimmedLine())
+        }
+
+        LineContext.of(content, 17).let {
+            assertEquals(17, it.lineStart)
+            assertEquals(24, it.lineEnd)
+            assertNull(it.listType)
+            assertFalse(it.checkbox)
+            assertEquals(12, it.orderedListNumber)
+        }
+
+        LineContext.of(content, content.length).let {
+            assertEquals("  -", it.line)
+            assertEquals(EListType.DASH, it.listType)
+            assertFalse(it.checkbox)
+            assertTrue(it.endsWithTrimmedLine())
+        }
+
+        LineContext.of(content, 0).let {
+            assertEquals("Foo", it.line)
+            assertEquals("", it.indention)
+            assertNull(it.listType)
+            assertNull(it.orderedListNumber)
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package it.niedermann.android.markdown.markwon.textwatcher
+
+import android.text.TextPaint
+import androidx.test.core.app.ApplicationProvider
+import it.niedermann.android.markdown.markwon.MarkwonMarkdownEditor
+import it.niedermann.android.markdown.model.SearchSpan
+import junit.framework.TestCase
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+
+@RunWith(RobolectricTestRunner::class)
+class SearchHighlightTextWatcherTest : TestCase() {
+
+    private lateinit var editor: MarkwonMarkdownEditor
+
+    @Before
+    fun reset() {
+        editor = MarkwonMarkdownEditor(ApplicationProvider.getApplicationContext())
+        editor.setText("foo bar foo baz foo")
+        editor.setSearchText("foo", 2)
+    }
+
+    @Test
+    fun `should highlight all matches and the current one`() {
+        assertEquals(listOf(0, 8, 16), getMatches())
+        assertEquals(8, getCurrentMatch())
+    }
+
+    @Test
+    fun `should keep the current occurrence when matches are added before it`() {
+        editor.text!!.insert(0, "foo ")
+
+        assertEquals(listOf(0, 4, 12, 20), getMatches())
+        assertEquals(12, getCurrentMatch())
+    }
+
+    @Test
+    fun `should find matches which are completed by typing`() {
+        editor.text!!.insert(7, " fo")
+        editor.text!!.insert(10, "o")
+
+        assertEquals(listOf(0, 8, 12, 20), getMatches())
+        assertEquals(12, getCurrentMatch())
+    }
+
+    @Test
+    fun `should make the next match current when the current one is removed`() {
+        editor.text!!.delete(8, 11)
+
+        assertEquals(listOf(0, 13), getMatches())
+        assertEquals(13, getCurrentMatch())
+    }
+
+    @Test
+    fun `should report the adjusted index of the current match`() {
+        val reported = mutableListOf<Int>()
+        editor.setSearchCurrentChangedListener { reported.add(it) }
+
+        editor.text!!.insert(0, "foo ")
+        // Matches after the current one do not move it
+        editor.text!!.insert(19, " x")
+        editor.text!!.delete(0, 4)
+
+        assertEquals(listOf(3, 2), reported)
+        assertEquals(8, getCurrentMatch())
+
+        // Passing the reported index back keeps the same occurrence current
+        editor.setSearchText("foo", reported.last())
+        assertEquals(8, getCurrentMatch())
+        assertEquals(listOf(3, 2), reported)
+    }
+
+    @Test
+    fun `should highlight the current match once it has been typed`() {
+        editor.setText("bar baz")
+        editor.setSearchText("foo", 2)
+        val reported = mutableListOf<Int>()
+        editor.setSearchCurrentChangedListener { reported.add(it) }
+
+        editor.text!!.append(" foo")
+        assertEquals(listOf(8), getMatches())
+
+        editor.text!!.append(" fo")
+        editor.text!!.append("o")
+
+        assertEquals(listOf(8, 12), getMatches())
+        assertEquals(12, getCurrentMatch())
+        assertEquals(emptyList<Int>(), reported)
+    }
+
+    @Test
+    fun `should search the whole content again when the search color changes`() {
+        editor.text!!.insert(0, "foo ")
+        editor.setCurrentSingleSignOnAccount(null, android.graphics.Color.RED)
+
+        assertEquals(listOf(0, 4, 12, 20), getMatches())
+        assertEquals(12, getCurrentMatch())
+    }
+
+    private fun getSpans() = editor.text!!.let { text ->
+        text.getSpans(0, text.length, SearchSpan::class.java).sortedBy { text.getSpanStart(it) }
+    }
+
+    private fun getMatches() = getSpans().map { editor.text!!.getSpanStart(it) }
+
+    /**
+     * @return the start of the only match which is highlighted differently than the others
+     */
+    private fun getCurrentMatch(): Int {
+        val byBackground = getSpans().groupBy { span -> TextPaint().also { span.updateDrawState(it) }.bgColor }
+        assertEquals(2, byBackground.size)
+        val current = byBackground.values.single { it.size == 1 }.single()
+        return editor.text!!.getSpanStart(current)
+    }
+}
@@ -0,0 +1,119 @@
+package it.niedermann.android.markdown.markwon.textwatcher
+
+import android.os.SystemClock
+import android.text.SpannableStringBuilder
+import junit.framework.TestCase
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+
+@RunWith(RobolectricTestRunner::class)
+class UndoRedoTextWatcherTest : TestCase() {
+
+    private lateinit var watcher: UndoRedoTextWatcher
+    private lateinit var text: SpannableStringBuilder
+
+    @Before
+    fun reset() {
+        watcher = UndoRedoTextWatcher()
+        text = SpannableStringBuilder("Lorem")
+        text.setSpan(watcher, 0, text.length, 0)
+    }
+
+    @Test
+    fun `should merge characters typed in a row`() {
+        text.append(" ")
+        text.append("I")
+        text.append("p")
+
+        assertEquals(5, watcher.undo(text))
+        assertEquals("Lorem", text.toString())
+        assertFalse(watcher.canUndo())
+
+        assertEquals(8, watcher.redo(text))
+        assertEquals("Lorem Ip", text.toString())
+    }
+
+    @Test
+    fun `should merge replacements of a composing keyboard`() {
+        // Keyboards replace the whole composing region with each keystroke
+        text.append(" ")
+        text.replace(6, 6, "I")
+        text.replace(6, 7, "Ip")
+        text.replace(6, 8, "Ips")
+        text.replace(6, 9, "Ip")
+        text.replace(6, 8, "Ipsum")
+        // The composed word gets committed with a space
+        text.replace(6, 11, "Ipsum ")
+
+        assertEquals(5, watcher.undo(text))
+        assertEquals("Lorem", text.toString())
+        assertFalse(watcher.canUndo())
+
+        assertEquals(12, watcher.redo(text))
+        assertEquals("Lorem Ipsum ", text.toString())
+    }
+
+    @Test
+    fun `should merge replacements of the end of the previous insertion only`() {
+        text.append(" Ipsum")
+        // Autocorrect of a word which has not been typed in this step
+        text.replace(0, 5, "Lorum")
+
+        watcher.undo(text)
+        assertEquals("Lorem Ipsum", text.toString())
+        watcher.undo(text)
+        assertEquals("Lorem", text.toString())
+    }
+
+    @Test
+    fun `should not merge characters typed after a pause or a line break`() {
+        text.append(" ")
+        SystemClock.sleep(2_000)
+        text.append("I")
+        text.append("\n")
+        text.append("p")
+
+        watcher.undo(text)
+        assertEquals("Lorem I\n", text.toString())
+        watcher.undo(text)
+        assertEquals("Lorem ", text.toString())
+        watcher.undo(text)
+        assertEquals("Lorem", text.toString())
+    }
+
+    @Test
+    fun `should undo groups as one step`() {
+        watcher.beginGroup()
+        text.insert(0, "**")
+        text.append("**")
+        watcher.endGroup()
+
+        assertEquals(0, watcher.undo(text))
+        assertEquals("Lorem", text.toString())
+    }
+
+    @Test
+    fun `should drop the oldest steps when exceeding the budget`() {
+        watcher.setBudget(200)
+        text.append("a".repeat(50))
+        text.replace(0, 0, "\n")
+        text.delete(0, 20)
+
+        watcher.undo(text)
+        watcher.undo(text)
+        assertEquals(-1, watcher.undo(text))
+        assertEquals("Lorem" + "a".repeat(50), text.toString())
+    }
+
+    @Test
+    fun `should clear redo steps on new changes`() {
+        text.append("!")
+        watcher.undo(text)
+        assertTrue(watcher.canRedo())
+
+        text.append("?")
+        assertFalse(watcher.canRedo())
+    }
+}